@@ -0,0 +1,50 @@
+/* MicroJava Code Emission Benchmark
+   =================================
+   Bytes per second emitted by Code.load for the different operand kinds
+   and by the raw Code.put.
+   Run with
+     java -cp build/bench MJ.Bench.CodeBench
+*/
+package MJ.Bench;
+
+import MJ.*;
+import MJ.CodeGen.*;
+import MJ.SymTab.*;
+
+public class CodeBench {
+	private static final int n = 100000;	// instructions per operation
+
+	// emit n loads of operands of the given kind and value/address
+	static void load(String name, final int kind, final int val) throws Exception {
+		final Parser parser = new Parser(new MJ.Scanner(new char[0], 0));
+		final Operand x = new Operand(kind, val, Tab.intType);
+		Harness.measure("load " + name, "bytes", () -> {
+			Code code = parser.code;
+			code.init();
+			for (int i = 0; i < n; i++) {
+				x.kind = kind; x.val = val; x.adr = val;
+				code.load(x);
+			}
+			return code.pc;
+		});
+	}
+
+	static void put() throws Exception {
+		final Parser parser = new Parser(new MJ.Scanner(new char[0], 0));
+		Harness.measure("put", "bytes", () -> {
+			Code code = parser.code;
+			code.init();
+			for (int i = 0; i < n; i++) code.put(Code.add);
+			return code.pc;
+		});
+	}
+
+	public static void main(String args[]) throws Exception {
+		load("const small", Operand.Con, 3);
+		load("const word", Operand.Con, 100000);
+		load("local short", Operand.Local, 2);
+		load("local", Operand.Local, 17);
+		load("static", Operand.Static, 5);
+		put();
+	}
+}
@@ -0,0 +1,54 @@
+/* MicroJava Benchmark Harness
+   ===========================
+   Minimal replacement for JMH: runs an operation until the warm-up time
+   has passed, then measures it for the measurement time and reports the
+   processed units per second (tokens, lines, instructions, ...).
+*/
+package MJ.Bench;
+
+import java.io.*;
+
+public class Harness {
+	static final long warmupNanos  = 1000000000L;	// 1 s
+	static final long measureNanos = 2000000000L;	// 2 s
+
+	// One benchmark operation; returns the number of units it processed
+	interface Op { long run() throws Exception; }
+
+	static long sink;	// results are added here so the JIT cannot discard them
+	static final PrintStream out = System.out;	// results go here even while silenced
+
+	// Run op repeatedly and print units/s; returns units/s
+	static double measure(String name, String unit, Op op) throws Exception {
+		long end = System.nanoTime() + warmupNanos;
+		while (System.nanoTime() < end) sink += op.run();
+		long units = 0, ops = 0;
+		long start = System.nanoTime();
+		do {
+			units += op.run(); ops++;
+		} while (System.nanoTime() - start < measureNanos);
+		long time = System.nanoTime() - start;
+		double rate = units * 1e9 / time;
+		out.printf("%-28s %12.1f %s/s  (%d ops, %.3f ms/op)%n",
+			name, rate, unit, ops, time / 1e6 / ops);
+		return rate;
+	}
+
+	// The compiler reports to System.out; route it away during measurements
+	static PrintStream silence() {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {}
+			public void write(byte[] b, int off, int len) {}
+		}));
+		return out;
+	}
+
+	// Parse sizes such as 1K, 64K, 1M, 100M
+	static int size(String s) {
+		char unit = Character.toUpperCase(s.charAt(s.length() - 1));
+		if (unit == 'K') return Integer.parseInt(s.substring(0, s.length() - 1)) << 10;
+		if (unit == 'M') return Integer.parseInt(s.substring(0, s.length() - 1)) << 20;
+		return Integer.parseInt(s);
+	}
+}
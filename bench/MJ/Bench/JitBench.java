@@ -0,0 +1,63 @@
+/* MicroJava Translation Benchmark
+   ===============================
+   Compiles MicroJava programs and runs each of them repeatedly, once in
+   the interpreter Run and once translated to a JVM class by
+   CodeGen.JvmTranslator; reports the time per run of both, the speedup
+   and the time to translate and load the class.
+   Run with
+     java -cp build/bench MJ.Bench.JitBench [<inputFileName> <programInput>]
+   without arguments it runs bench/programs/Fib.mj and Sort.mj.
+*/
+package MJ.Bench;
+
+import java.io.*;
+import java.nio.file.*;
+import MJ.*;
+import MJ.CodeGen.*;
+
+public class JitBench {
+	private static final int runs = 10;
+
+	private static final Writer discard = new Writer() {
+		public void write(char[] b, int off, int len) {}
+		public void flush() {}
+		public void close() {}
+	};
+
+	interface Program {
+		void run(InputStream in) throws IOException;
+	}
+
+	// Average time of one run in ms, after as many warm-up runs
+	private static double time(Program p, byte[] input) throws IOException {
+		for (int i = 0; i < runs; i++) p.run(new ByteArrayInputStream(input));
+		long start = System.nanoTime();
+		for (int i = 0; i < runs; i++) p.run(new ByteArrayInputStream(input));
+		return (System.nanoTime() - start) / 1e6 / runs;
+	}
+
+	static void bench(Path source, String programInput) throws IOException {
+		byte[] obj = VMThroughput.compile(source);
+		if (obj == null) {
+			System.out.println("-- " + source + " has errors");
+			return;
+		}
+		byte[] input = programInput.getBytes("US-ASCII");
+		Run vm = new Run(obj);
+		long start = System.nanoTime();
+		JvmProgram jvm = new JvmTranslator(obj).load();
+		double load = (System.nanoTime() - start) / 1e6;
+		double interpreted = time(in -> vm.run(in, discard), input);
+		double translated = time(in -> jvm.run(in, discard), input);
+		System.out.printf("%-12s %-6s run %9.3f ms, translated %9.3f ms (%.1fx), translate+load %.2f ms%n",
+			source.getFileName(), programInput, interpreted, translated, interpreted / translated, load);
+	}
+
+	public static void main(String args[]) throws IOException {
+		if (args.length >= 2) bench(Paths.get(args[0]), args[1]);
+		else {
+			bench(Paths.get("bench/programs/Fib.mj"), "27");
+			bench(Paths.get("bench/programs/Sort.mj"), "2000");
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/* MicroJava Parallel Code Generation Benchmark
+   ============================================
+   Source lines per second of Parser.parse() on generated sources with
+   many methods, once compiling the method bodies one after the other and
+   once compiling them in parallel (Parser.parallel).
+   Run with
+     java -cp build/bench MJ.Bench.ParallelCodegen [size]...
+*/
+package MJ.Bench;
+
+import java.io.*;
+import MJ.*;
+
+public class ParallelCodegen {
+
+	static void run(String size) throws Exception {
+		final char[] src = SourceGen.generate(Harness.size(size), 42).toCharArray();
+		long n = 1;
+		for (char c: src) if (c == '\n') n++;
+		final long lines = n;
+		PrintStream out = Harness.silence();
+		try {
+			double seq = 0;
+			for (boolean parallel: new boolean[] {false, true}) {
+				double rate = Harness.measure((parallel ? "parallel " : "sequential ") + size, "lines", () -> {
+					Parser parser = new Parser(new MJ.Scanner(src, src.length), new Diagnostics(Diagnostics.none));
+					parser.parallel = parallel;
+					parser.parse();
+					Harness.sink += parser.code.pc;
+					return lines;
+				});
+				if (!parallel) seq = rate;
+				else Harness.out.printf("speedup %s: %.2fx on %d cores%n", size, rate / seq,
+					Runtime.getRuntime().availableProcessors());
+			}
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	public static void main(String args[]) throws Exception {
+		if (args.length == 0) args = new String[] {"64K", "1M"};
+		for (String size: args) run(size);
+	}
+}
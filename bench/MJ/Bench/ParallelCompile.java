@@ -0,0 +1,85 @@
+/* MicroJava Parallel Compilation Benchmark
+   ========================================
+   Compiles the given sources over and over on 1, 2, 4, ... threads in one JVM
+   and reports compilations per second and the speedup over one thread.
+   Compile with
+     javac -d build/bench src/MJ/*.java src/MJ/CodeGen/*.java src/MJ/symTab/*.java bench/MJ/Bench/*.java
+   Run with
+     java -cp build/bench MJ.Bench.ParallelCompile <maxThreads> <inputFileName>...
+*/
+package MJ.Bench;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import MJ.*;
+
+public class ParallelCompile {
+	private static final int rounds = 200;	// compilations per thread and measurement
+
+	private static String[] sources;
+
+	// Compile one source on a fresh Parser; returns the number of errors
+	private static int compile(String source) {
+		Parser parser = new Parser(new Scanner(source.toCharArray(), source.length()));
+		parser.parse();
+		return parser.errors;
+	}
+
+	// Run rounds*threads compilations on a pool of the given size; returns compilations/sec
+	private static double measure(int threads) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final AtomicInteger failed = new AtomicInteger();
+		List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < threads; i++) {
+			final int first = i;
+			jobs.add(new Callable<Void>() {
+				public Void call() {
+					for (int r = 0; r < rounds; r++) {
+						try {
+							compile(sources[(first + r) % sources.length]);
+						} catch (RuntimeException e) {
+							failed.incrementAndGet();
+						}
+					}
+					return null;
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for (Future<Void> f: pool.invokeAll(jobs)) f.get();
+		long time = System.nanoTime() - start;
+		pool.shutdown();
+		if (failed.get() > 0) System.err.println("-- " + failed.get() + " compilations aborted");
+		return (double)rounds * threads * 1e9 / time;
+	}
+
+	public static void main(String args[]) throws Exception {
+		if (args.length < 2) {
+			System.out.println("-- synopsis: java MJ.Bench.ParallelCompile <maxThreads> <inputFileName>...");
+			return;
+		}
+		int maxThreads = Integer.parseInt(args[0]);
+		sources = new String[args.length - 1];
+		for (int i = 1; i < args.length; i++)
+			sources[i-1] = new String(Files.readAllBytes(Paths.get(args[i])), "UTF-8");
+
+		// the compiler reports to System.out; keep the console out of the measurement
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {}
+			public void write(byte[] b, int off, int len) {}
+		}));
+
+		measure(maxThreads); // warm up
+		double base = 0;
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			double rate = measure(threads);
+			if (threads == 1) base = rate;
+			out.printf("%3d threads: %10.1f compilations/s  speedup %5.2f%n", threads, rate, rate / base);
+		}
+	}
+}
@@ -0,0 +1,37 @@
+/* MicroJava Parser Benchmark
+   ==========================
+   Source lines per second of a complete Parser.parse() (scanning, symbol
+   table and code generation) on generated sources.
+   Run with
+     java -cp build/bench MJ.Bench.ParserBench [size]...
+*/
+package MJ.Bench;
+
+import java.io.*;
+import MJ.*;
+
+public class ParserBench {
+
+	static void run(String size) throws Exception {
+		final char[] src = SourceGen.generate(Harness.size(size), 42).toCharArray();
+		long n = 1;
+		for (char c: src) if (c == '\n') n++;
+		final long lines = n;
+		PrintStream out = Harness.silence();
+		try {
+			Harness.measure("parser " + size, "lines", () -> {
+				Parser parser = new Parser(new MJ.Scanner(src, src.length));
+				parser.parse();
+				Harness.sink += parser.errors;
+				return lines;
+			});
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	public static void main(String args[]) throws Exception {
+		if (args.length == 0) args = new String[] {"1K", "64K", "1M"};
+		for (String size: args) run(size);
+	}
+}
@@ -0,0 +1,55 @@
+/* MicroJava Peephole Benchmark
+   ============================
+   Compiles a corpus of programs with and without the peephole optimizer
+   and reports code size and executed VM instructions of both versions.
+   Run from the project directory with
+     java -cp build/bench MJ.Bench.PeepholeBench
+*/
+package MJ.Bench;
+
+import java.io.*;
+import java.nio.file.*;
+import MJ.*;
+
+public class PeepholeBench {
+	// program and its input
+	private static final String[][] corpus = {
+		{"bench/programs/Fib.mj", "22"},
+		{"bench/programs/Sort.mj", "500"},
+		{"src/Eratos.mj", "2000"},
+		{"src/sample.mj", "1 2 -3 4 0"},
+	};
+
+	private static byte[] compile(char[] src, boolean optimize) throws IOException {
+		Parser parser = new Parser(new MJ.Scanner(src, src.length));
+		parser.optimize = optimize;
+		parser.parse();
+		if (parser.errors > 0) throw new IOException(parser.errors + " errors");
+		ByteArrayOutputStream obj = new ByteArrayOutputStream();
+		parser.code.write(obj);
+		return obj.toByteArray();
+	}
+
+	private static void report(String name, char[] src, String input) throws IOException {
+		PrintStream out = Harness.silence();
+		byte[] plain, opt;
+		long n0, n1;
+		try {
+			plain = compile(src, false);
+			opt = compile(src, true);
+			n0 = VMThroughput.run(new Run(plain), input.getBytes("US-ASCII"));
+			n1 = VMThroughput.run(new Run(opt), input.getBytes("US-ASCII"));
+		} finally {
+			System.setOut(out);
+		}
+		System.out.printf("%-24s code %7d -> %7d (%5.1f%%)  instructions %10d -> %10d (%5.1f%%)%n",
+			name, plain.length - 14, opt.length - 14, 100.0 * (plain.length - opt.length) / (plain.length - 14),
+			n0, n1, 100.0 * (n0 - n1) / n0);
+	}
+
+	public static void main(String args[]) throws IOException {
+		for (String[] p: corpus)
+			report(p[0], new String(Files.readAllBytes(Paths.get(p[0])), "UTF-8").toCharArray(), p[1]);
+		report("generated 16K", SourceGen.generate(16 << 10, 42).toCharArray(), "");
+	}
+}
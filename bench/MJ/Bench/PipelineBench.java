@@ -0,0 +1,46 @@
+/* MicroJava Pipelined Scanning Benchmark
+   ======================================
+   Source lines per second of Parser.parse() on multi-MB generated sources,
+   once with the synchronous Scanner and once with a PipelinedScanner that
+   tokenizes on a second thread. The speedup needs at least two cores.
+   Run with
+     java -cp build/bench MJ.Bench.PipelineBench [size]...
+*/
+package MJ.Bench;
+
+import java.io.*;
+import MJ.*;
+
+public class PipelineBench {
+
+	static void run(String size) throws Exception {
+		final char[] src = SourceGen.generate(Harness.size(size), 42).toCharArray();
+		long n = 1;
+		for (char c: src) if (c == '\n') n++;
+		final long lines = n;
+		PrintStream out = Harness.silence();
+		try {
+			double sync = Harness.measure("synchronous " + size, "lines", () -> {
+				Parser parser = new Parser(new MJ.Scanner(src, src.length), new Diagnostics(Diagnostics.none));
+				parser.parse();
+				Harness.sink += parser.errors;
+				return lines;
+			});
+			double piped = Harness.measure("pipelined " + size, "lines", () -> {
+				Parser parser = new Parser(new PipelinedScanner(src, src.length), new Diagnostics(Diagnostics.none));
+				parser.parse();
+				Harness.sink += parser.errors;
+				return lines;
+			});
+			Harness.out.printf("speedup %s: %.2fx on %d cores%n", size, piped / sync,
+				Runtime.getRuntime().availableProcessors());
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	public static void main(String args[]) throws Exception {
+		if (args.length == 0) args = new String[] {"1M", "4M"};
+		for (String size: args) run(size);
+	}
+}
@@ -0,0 +1,31 @@
+/* MicroJava Scanner Benchmark
+   ===========================
+   Tokens per second of Scanner.next(Token) on generated sources.
+   Run with
+     java -cp build/bench MJ.Bench.ScannerBench [size]...
+*/
+package MJ.Bench;
+
+import MJ.*;
+
+public class ScannerBench {
+	private static final int eof = 36;	// token code of eof
+
+	static void run(String size) throws Exception {
+		final char[] src = SourceGen.generate(Harness.size(size), 42).toCharArray();
+		Harness.measure("scanner " + size, "tokens", () -> {
+			MJ.Scanner scanner = new MJ.Scanner(src, src.length);
+			Token t = new Token();
+			long n = 0;
+			do {
+				scanner.next(t); n++;
+			} while (t.kind != eof);
+			return n;
+		});
+	}
+
+	public static void main(String args[]) throws Exception {
+		if (args.length == 0) args = new String[] {"1K", "64K", "1M"};
+		for (String size: args) run(size);
+	}
+}
@@ -0,0 +1,83 @@
+/* MicroJava Scanner Input Benchmark
+   =================================
+   Compares the throughput (MB/s of source text) of
+     reader: one Reader.read() per character, as the scanner used to do
+     bulk:   Scanner(Reader), which reads the source in blocks
+     mapped: Scanner(Path), which maps and decodes the source file
+   The last two include the complete tokenization.
+   Run with
+     java -cp build/bench MJ.Bench.ScannerInput <inputFileName>
+*/
+package MJ.Bench;
+
+import java.io.*;
+import java.nio.file.*;
+import MJ.*;
+
+public class ScannerInput {
+	private static final int eof = 36;	// token code of eof
+	private static final int runs = 10;
+
+	private static Path file;
+	private static long size;			// file size in bytes
+	private static int sink;			// keeps the JIT from discarding results
+
+	// The old input layer: read and count characters one by one through a BufferedReader
+	private static void reader() throws IOException {
+		try (Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(file.toFile()), "UTF-8"))) {
+			int line = 1, col = 0;
+			for (;;) {
+				char ch;
+				try {
+					ch = (char)in.read(); col++;
+					if (ch == '\n') {line++; col = 0;}
+					else if (ch == '\uffff') break;
+				} catch (IOException e) {
+					break;
+				}
+			}
+			sink += line + col;
+		}
+	}
+
+	private static void tokens(MJ.Scanner scanner) {
+		Token t;
+		do {
+			t = scanner.next();
+			sink += t.kind;
+		} while (t.kind != eof);
+	}
+
+	private static void bulk() throws IOException {
+		try (Reader in = new InputStreamReader(new FileInputStream(file.toFile()), "UTF-8")) {
+			tokens(new MJ.Scanner(in));
+		}
+	}
+
+	private static void mapped() throws IOException {
+		tokens(new MJ.Scanner(file));
+	}
+
+	private interface Run { void run() throws IOException; }
+
+	private static void measure(String name, Run r) throws IOException {
+		for (int i = 0; i < runs; i++) r.run(); // warm up
+		long start = System.nanoTime();
+		for (int i = 0; i < runs; i++) r.run();
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%-7s %8.1f MB/s%n", name, size * runs / secs / 1e6);
+	}
+
+	public static void main(String args[]) throws IOException {
+		if (args.length == 0) {
+			System.out.println("-- synopsis: java MJ.Bench.ScannerInput <inputFileName>");
+			return;
+		}
+		file = Paths.get(args[0]);
+		size = Files.size(file);
+		measure("reader", ScannerInput::reader);
+		measure("bulk", ScannerInput::bulk);
+		measure("mapped", ScannerInput::mapped);
+		if (sink == 42) System.out.println();
+	}
+}
@@ -0,0 +1,50 @@
+/* MicroJava Scope Scaling Benchmark
+   =================================
+   Declares n variables in one scope and looks each of them up again,
+   for n = 10, 1000 and 100000, and reports ns per insert and per find.
+   With hashed scopes both should stay flat as n grows.
+   Run with
+     java -cp build/bench MJ.Bench.ScopeScaling
+*/
+package MJ.Bench;
+
+import MJ.*;
+import MJ.SymTab.*;
+
+public class ScopeScaling {
+	private static final int[] sizes = {10, 1000, 100000};
+	private static final int ops = 2000000;	// inserts (and finds) per measurement
+
+	private static int sink;
+
+	// Returns {ns per insert, ns per find} for scopes of n declarations
+	private static double[] measure(int n) {
+		MJ.Scanner scanner = new MJ.Scanner(new char[0], 0);
+		int[] ids = new int[n];
+		for (int i = 0; i < n; i++) ids[i] = scanner.names.intern("v" + i);
+		int reps = Math.max(1, ops / n);
+		long insert = 0, find = 0;
+		for (int r = 0; r < reps; r++) {
+			Parser parser = new Parser(scanner);
+			Tab tab = parser.tab;
+			tab.init();
+			tab.openScope();
+			long start = System.nanoTime();
+			for (int i = 0; i < n; i++) tab.insert(Obj.Var, ids[i], Tab.intType);
+			long mid = System.nanoTime();
+			for (int i = 0; i < n; i++) sink += tab.find(ids[i]).adr;
+			find += System.nanoTime() - mid;
+			insert += mid - start;
+		}
+		return new double[] {(double)insert / reps / n, (double)find / reps / n};
+	}
+
+	public static void main(String args[]) {
+		for (int n: sizes) measure(n); // warm up
+		for (int n: sizes) {
+			double[] r = measure(n);
+			System.out.printf("%7d declarations: insert %7.1f ns  find %7.1f ns%n", n, r[0], r[1]);
+		}
+		if (sink == 42) System.out.println();
+	}
+}
@@ -0,0 +1,99 @@
+/* MicroJava Source Generator
+   ==========================
+   Generates syntactically and semantically correct MicroJava programs of
+   roughly the requested size. The output depends only on size and seed,
+   so benchmark inputs are reproducible.
+   Run with
+     java -cp build/bench MJ.Bench.SourceGen <size> <outputFileName> [seed]
+   where size is e.g. 1K, 64K, 1M or 100M.
+*/
+package MJ.Bench;
+
+import java.io.*;
+import java.nio.file.*;
+
+public class SourceGen {
+	private static final int nGlobals = 20;
+
+	private final StringBuilder sb;
+	private long seed;
+	private int nMethods;
+
+	private SourceGen(int size, long seed) {
+		sb = new StringBuilder(size + 1024);
+		this.seed = seed;
+	}
+
+	// deterministic pseudo random number in [0, n)
+	private int rnd(int n) {
+		seed = (seed * 0x5DEECE66DL + 0xBL) & ((1L << 48) - 1);
+		return (int)((seed >>> 17) % n);
+	}
+
+	private String global() {
+		return "g" + rnd(nGlobals);
+	}
+
+	// an int expression over the locals x, y, i, s and the globals
+	private void expr(int depth) {
+		switch (depth > 2 ? rnd(3) : rnd(6)) {
+			case 0: sb.append(rnd(1000)); break;
+			case 1: sb.append("xyis".charAt(rnd(4))); break;
+			case 2: sb.append(global()); break;
+			case 3: expr(depth + 1); sb.append(" + "); expr(depth + 1); break;
+			case 4: expr(depth + 1); sb.append(" * "); expr(depth + 1); break;
+			case 5: sb.append('('); expr(depth + 1); sb.append(" - "); expr(depth + 1); sb.append(')'); break;
+		}
+	}
+
+	private void method() {
+		int m = nMethods++;
+		sb.append("\tint m").append(m).append("(int x, int y)\n");
+		sb.append("\t\tint i, s;\n\t{\n");
+		sb.append("\t\ti = 0; s = x;\n");
+		sb.append("\t\twhile (i < y) {\n");
+		sb.append("\t\t\tif (s > ").append(rnd(10000)).append(") s = s - y * 3;\n");
+		sb.append("\t\t\telse s = s + i % 7;\n");
+		int n = 1 + rnd(4);
+		for (int k = 0; k < n; k++) {
+			sb.append("\t\t\t").append(k % 2 == 0 ? "s" : global()).append(" = ");
+			expr(0);
+			sb.append(";\n");
+		}
+		sb.append("\t\t\ti = i + 1;\n\t\t}\n");
+		if (m > 0 && rnd(3) == 0) sb.append("\t\ts = s + m").append(rnd(m)).append("(s, 2);\n");
+		sb.append("\t\treturn s;\n\t}\n\n");
+	}
+
+	private String generate(int size) {
+		sb.append("program Gen\n");
+		sb.append("\tfinal int size = 10;\n");
+		sb.append("\tclass Pair {\n\t\tint a;\n\t\tint b;\n\t\tint[] c;\n\t}\n");
+		sb.append("\tint ");
+		for (int i = 0; i < nGlobals; i++) sb.append(i == 0 ? "" : ", ").append('g').append(i);
+		sb.append(";\n\tPair p;\n{\n");
+		while (sb.length() < size - 200) method();
+		if (nMethods == 0) method();
+		sb.append("\tvoid main()\n\t\tint r;\n\t{\n");
+		sb.append("\t\tp = new Pair; p.c = new int[size];\n\t\tr = 0;\n");
+		for (int i = 0; i < Math.min(nMethods, 100); i++)
+			sb.append("\t\tr = r + m").append(i).append("(r, ").append(1 + rnd(5)).append(");\n");
+		sb.append("\t\tprint(r);\n\t}\n}\n");
+		return sb.toString();
+	}
+
+	// A program of about size characters
+	public static String generate(int size, long seed) {
+		return new SourceGen(size, seed).generate(size);
+	}
+
+	public static void main(String args[]) throws IOException {
+		if (args.length < 2) {
+			System.out.println("-- synopsis: java MJ.Bench.SourceGen <size> <outputFileName> [seed]");
+			return;
+		}
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+		String src = generate(Harness.size(args[0]), seed);
+		Files.write(Paths.get(args[1]), src.getBytes("US-ASCII"));
+	}
+}
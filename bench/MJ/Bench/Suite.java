@@ -0,0 +1,19 @@
+/* MicroJava Benchmark Suite
+   =========================
+   Runs the scanner, parser, symbol table and code emission benchmarks
+   with their default parameters.
+   Run with
+     ant -f bench/build.xml
+   or
+     java -cp build/bench MJ.Bench.Suite
+*/
+package MJ.Bench;
+
+public class Suite {
+	public static void main(String args[]) throws Exception {
+		ScannerBench.main(new String[0]);
+		ParserBench.main(new String[0]);
+		ScopeScaling.main(new String[0]);
+		CodeBench.main(new String[0]);
+	}
+}
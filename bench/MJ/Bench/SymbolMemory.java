@@ -0,0 +1,90 @@
+/* MicroJava Symbol Table Memory Benchmark
+   =======================================
+   Declares n symbols (global variables, and methods with 9 locals each)
+   with Tab and reports the retained heap per symbol and the time per
+   insert. The names are interned beforehand and are not counted.
+   Then it compares n Obj nodes with n nodes of the layout Obj had before
+   it was packed (name String, int kind, level and nPars).
+   Run with
+     java -cp build/bench MJ.Bench.SymbolMemory [n]
+*/
+package MJ.Bench;
+
+import MJ.*;
+import MJ.SymTab.*;
+
+public class SymbolMemory {
+	private static final int locals = 9;	// locals per method
+
+	// Obj before it was packed
+	private static class WideObj {
+		int     kind;
+		String  name;
+		int     id;
+		Struct  type;
+		int     val, adr, level, nPars;
+		WideObj locals, next;
+	}
+
+	private static long used() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	// Declare n symbols in tab: n/2 globals, the rest in methods
+	private static Object fill(Parser parser, int[] ids, int n) {
+		Tab tab = parser.tab;
+		tab.init();
+		tab.openScope();
+		int i = 0;
+		for (; i < n / 2; i++) tab.insert(Obj.Var, ids[i], Tab.intType);
+		while (i < n) {
+			Obj m = tab.insert(Obj.Meth, ids[i++], Tab.noType);
+			tab.openScope();
+			for (int k = 0; k < locals && i < n; k++) tab.insert(Obj.Var, ids[i++], Tab.intType);
+			m.locals = tab.curScope.locals;
+			tab.closeScope();
+		}
+		return tab;
+	}
+
+	public static void main(String args[]) {
+		int n = args.length > 0 ? Harness.size(args[0]) : 1000000;
+		MJ.Scanner scanner = new MJ.Scanner(new char[0], 0);
+		int[] ids = new int[n];
+		for (int i = 0; i < n; i++) ids[i] = scanner.names.intern("v" + i);
+		for (int r = 0; r < 3; r++) // warm up
+			fill(new Parser(scanner, new Diagnostics(Diagnostics.none)), ids, n);
+
+		long before = used(), start = System.nanoTime();
+		Object tab = fill(new Parser(scanner, new Diagnostics(Diagnostics.none)), ids, n);
+		long time = System.nanoTime() - start;
+		long bytes = used() - before;
+		System.out.printf("Tab     %9d symbols: %6.1f bytes/symbol, %6.1f ns/insert%n",
+			n, (double)bytes / n, (double)time / n);
+		if (tab.hashCode() == 42) System.out.println();	// keep tab reachable
+		tab = null;
+
+		before = used();
+		Obj list = null;
+		for (int i = 0; i < n; i++) {
+			Obj o = new Obj(Obj.Var, ids[i], Tab.intType);
+			o.next = list; list = o;
+		}
+		bytes = used() - before;
+		if (list.hashCode() == 42) System.out.println();
+		list = null;
+		before = used();
+		WideObj wide = null;
+		for (int i = 0; i < n; i++) {
+			WideObj o = new WideObj();
+			o.kind = Obj.Var; o.name = scanner.names.name(ids[i]); o.id = ids[i]; o.type = Tab.intType;
+			o.next = wide; wide = o;
+		}
+		long wideBytes = used() - before;
+		if (wide.hashCode() == 42) System.out.println();
+		System.out.printf("Obj     %9d nodes:   %6.1f bytes/node (before packing: %.1f)%n",
+			n, (double)bytes / n, (double)wideBytes / n);
+	}
+}
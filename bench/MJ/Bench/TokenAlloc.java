@@ -0,0 +1,75 @@
+/* MicroJava Token Allocation Benchmark
+   ====================================
+   Reports heap bytes allocated per token and tokens per second for
+     new:    Scanner.next(), one new Token per token
+     reuse:  Scanner.next(Token), the path used by the parser
+   Allocation is measured with the per-thread allocation counter of HotSpot;
+   the source buffer itself is allocated before the measurement starts.
+   Run with
+     java -cp build/bench MJ.Bench.TokenAlloc <inputFileName>
+*/
+package MJ.Bench;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import MJ.*;
+
+public class TokenAlloc {
+	private static final int eof = 36;	// token code of eof
+	private static final int runs = 10;
+
+	private static final com.sun.management.ThreadMXBean threads =
+		(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+	private static char[] src;
+	private static int sink;			// keeps the JIT from discarding results
+
+	private static long tokensNew() {
+		MJ.Scanner scanner = new MJ.Scanner(src, src.length);
+		long n = 0;
+		Token t;
+		do {
+			t = scanner.next(); n++;
+			sink += t.kind;
+		} while (t.kind != eof);
+		return n;
+	}
+
+	private static long tokensReuse() {
+		MJ.Scanner scanner = new MJ.Scanner(src, src.length);
+		Token t = new Token();
+		long n = 0;
+		do {
+			scanner.next(t); n++;
+			sink += t.kind;
+		} while (t.kind != eof);
+		return n;
+	}
+
+	private interface Run { long run(); }
+
+	private static void measure(String name, Run r) {
+		for (int i = 0; i < runs; i++) r.run(); // warm up
+		long id = Thread.currentThread().getId();
+		long tokens = 0;
+		long bytes = threads.getThreadAllocatedBytes(id);
+		long start = System.nanoTime();
+		for (int i = 0; i < runs; i++) tokens += r.run();
+		long time = System.nanoTime() - start;
+		bytes = threads.getThreadAllocatedBytes(id) - bytes;
+		System.out.printf("%-6s %8.2f bytes/token %10.1f Mtokens/s%n",
+			name, (double)bytes / tokens, tokens * 1e3 / time);
+	}
+
+	public static void main(String args[]) throws IOException {
+		if (args.length == 0) {
+			System.out.println("-- synopsis: java MJ.Bench.TokenAlloc <inputFileName>");
+			return;
+		}
+		src = new String(Files.readAllBytes(Paths.get(args[0])), "UTF-8").toCharArray();
+		measure("new", TokenAlloc::tokensNew);
+		measure("reuse", TokenAlloc::tokensReuse);
+		if (sink == 42) System.out.println();
+	}
+}
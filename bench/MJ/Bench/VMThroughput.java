@@ -0,0 +1,57 @@
+/* MicroJava VM Throughput Benchmark
+   =================================
+   Compiles a MicroJava program, runs it repeatedly in the VM with the given
+   input and reports executed MicroJava instructions per second.
+   Run with
+     java -cp build/bench MJ.Bench.VMThroughput <inputFileName> <programInput>
+   e.g.
+     java -cp build/bench MJ.Bench.VMThroughput bench/programs/Fib.mj 27
+*/
+package MJ.Bench;
+
+import java.io.*;
+import java.nio.file.*;
+import MJ.*;
+
+public class VMThroughput {
+	private static final int runs = 10;
+
+	// Compile source to an object file image; null if there were errors
+	static byte[] compile(Path source) throws IOException {
+		Parser parser = new Parser(new MJ.Scanner(source));
+		parser.parse();
+		if (parser.errors > 0) return null;
+		ByteArrayOutputStream obj = new ByteArrayOutputStream();
+		parser.code.write(obj);
+		return obj.toByteArray();
+	}
+
+	// Run the program once; returns the number of executed instructions
+	static long run(Run vm, byte[] input) throws IOException {
+		vm.run(new ByteArrayInputStream(input), new Writer() {
+			public void write(char[] b, int off, int len) {}
+			public void flush() {}
+			public void close() {}
+		});
+		return vm.instructions;
+	}
+
+	public static void main(String args[]) throws IOException {
+		if (args.length < 2) {
+			System.out.println("-- synopsis: java MJ.Bench.VMThroughput <inputFileName> <programInput>");
+			return;
+		}
+		byte[] obj = compile(Paths.get(args[0]));
+		if (obj == null) {
+			System.out.println("-- " + args[0] + " has errors");
+			return;
+		}
+		byte[] input = args[1].getBytes("US-ASCII");
+		Run vm = new Run(obj);
+		for (int i = 0; i < runs; i++) run(vm, input); // warm up
+		long instr = 0, start = System.nanoTime();
+		for (int i = 0; i < runs; i++) instr += run(vm, input);
+		long time = System.nanoTime() - start;
+		System.out.printf("%d instructions/run, %.1f M instructions/s%n", instr / runs, instr * 1e3 / time);
+	}
+}
@@ -0,0 +1,209 @@
+/* MicroJava Batch Compiler
+   ========================
+   Compiles every .mj file of the given directories and files on a pool of
+   worker threads and writes an .obj file next to each error-free source.
+   The error messages of each file are collected during its compilation
+   and printed together with the summary, which ends with the percentiles
+   of the per-file compile latencies.
+   Run with
+     java MJ.BatchCompiler [-threads <n>] [-l] [-cache <dir>] [-diag text|json|none]
+                           [-maxerrors <n>] [-pipeline] [-parallel] [-metrics <file>]
+                           [-ir] [-inline <n>] [-inlinereport] <directory or inputFileName>...
+   -l also writes a code listing (.lst) next to each .obj file
+   -cache keeps compilation results in <dir> and skips unchanged sources
+   -diag prints the error messages as text (default), as JSON lines or not at all
+   -maxerrors stops compiling a file after <n> errors
+   -pipeline scans each file on a separate thread ahead of its parser
+   -parallel compiles the method bodies of each file in parallel
+   -metrics writes the counters and phase times of each compilation to
+            <file> as JSON lines (see Metrics)
+   -ir optimizes each method through the intermediate representation (see CodeGen.IR)
+   -inline sets the size of the largest method that -ir inlines (0: none;
+           default 16 instructions, see CodeGen.Inliner)
+   -inlinereport adds the inlining decisions to the messages of each file
+           (not for results taken from the cache)
+*/
+package MJ;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.*;
+import MJ.CodeGen.Inliner;
+
+public class BatchCompiler {
+
+	// Result of compiling one source file
+	private static class Result {
+		Path   source;
+		int    errors;
+		long   nanos;
+		String failure;	// exception message if the compilation was aborted
+		boolean cached;	// result taken from the compilation cache
+		StringBuilder messages = new StringBuilder();	// formatted diagnostics
+		Metrics metrics;	// null if cached or aborted
+	}
+
+	private static boolean listing;	// write .lst files
+	private static CompileCache cache;	// null: no caching
+	private static String diagFormat = "text";
+	private static int maxErrors;		// 0: no limit
+	private static boolean pipeline;	// use a PipelinedScanner
+	private static boolean parallel;	// compile method bodies in parallel
+	private static Path metricsFile;	// null: no metrics output
+	private static boolean ir;			// optimize through the IR
+	private static int inline = Inliner.defaultSize;	// with ir: largest inlined method
+	private static boolean inlineReport;	// report what was inlined
+
+	private static Diagnostics.Sink sink(Result r) {
+		switch (diagFormat) {
+			case "json": return Diagnostics.json(r.messages, r.source.toString());
+			case "none": return Diagnostics.none;
+			default:     return Diagnostics.text(r.messages);
+		}
+	}
+
+	private static Path sibling(Path source, String ext) {
+		String name = source.getFileName().toString();
+		return source.resolveSibling(name.substring(0, name.length() - 3) + ext);
+	}
+
+	// Compile one file through the cache
+	private static void compileCached(Path source, Result r) throws IOException {
+		CompileCache.Entry e = cache.compile(Files.readAllBytes(source), sink(r), maxErrors);
+		r.errors = e.errors;
+		r.cached = e.cached;
+		if (e.errors == 0) {
+			if (listing) {
+				try (Writer w = Files.newBufferedWriter(sibling(source, ".lst"))) {
+					e.list(w);
+				}
+			}
+			Files.write(sibling(source, ".obj"), e.obj);
+		}
+	}
+
+	// Compile one file; the object file is written only if there were no errors
+	private static Result compile(Path source) {
+		Result r = new Result();
+		r.source = source;
+		long start = System.nanoTime();
+		try {
+			if (cache != null) {
+				compileCached(source, r);
+				r.nanos = System.nanoTime() - start;
+				return r;
+			}
+			Object event = CompileEvent.begin();
+			Scanner scanner = pipeline ? new PipelinedScanner(source) : new Scanner(source);
+			Parser parser = new Parser(scanner, new Diagnostics(sink(r), maxErrors));
+			parser.parallel = parallel;
+			parser.ir = ir;
+			parser.inline = inline;
+			if (inlineReport) parser.inlineReport = r.messages;
+			parser.parse();
+			r.errors = parser.errors;
+			if (r.errors == 0) {
+				if (listing) {
+					try (Writer w = Files.newBufferedWriter(sibling(source, ".lst"))) {
+						parser.code.list(w);
+					}
+				}
+				Path obj = sibling(source, ".obj");
+				parser.code.write(new BufferedOutputStream(Files.newOutputStream(obj)));
+				r.errors = parser.errors;
+			}
+			parser.metrics.errors = r.errors;
+			parser.metrics.finish();
+			CompileEvent.commit(event, source.toString(), parser.metrics);
+			r.metrics = parser.metrics;
+		} catch (IOException e) {
+			r.failure = "cannot read " + source;
+		} catch (RuntimeException e) {
+			r.failure = e.toString();
+		}
+		r.nanos = System.nanoTime() - start;
+		return r;
+	}
+
+	// p-th percentile of the sorted values (nearest rank)
+	private static long percentile(long[] sorted, int p) {
+		int rank = (p * sorted.length + 99) / 100;
+		return sorted[Math.max(rank, 1) - 1];
+	}
+
+	// Collect the .mj files of a directory tree or a single file
+	private static void collect(Path p, List<Path> files) throws IOException {
+		if (Files.isDirectory(p)) {
+			try (Stream<Path> s = Files.walk(p)) {
+				s.filter(f -> f.toString().endsWith(".mj") && Files.isRegularFile(f))
+				 .sorted().forEach(files::add);
+			}
+		} else files.add(p);
+	}
+
+	public static void main(String args[]) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<Path> files = new ArrayList<Path>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-l")) listing = true;
+			else if (args[i].equals("-cache") && i + 1 < args.length)
+				cache = new CompileCache(Paths.get(args[++i]), CompileCache.defaultMaxBytes);
+			else if (args[i].equals("-diag") && i + 1 < args.length) diagFormat = args[++i];
+			else if (args[i].equals("-maxerrors") && i + 1 < args.length) maxErrors = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-pipeline")) pipeline = true;
+			else if (args[i].equals("-parallel")) parallel = true;
+			else if (args[i].equals("-metrics") && i + 1 < args.length) metricsFile = Paths.get(args[++i]);
+			else if (args[i].equals("-ir")) ir = true;
+			else if (args[i].equals("-inline") && i + 1 < args.length) inline = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-inlinereport")) inlineReport = true;
+			else collect(Paths.get(args[i]), files);
+		}
+		if (cache != null) {
+			cache.ir = ir;
+			cache.inline = inline;
+		}
+		if (files.isEmpty()) {
+			System.out.println("-- synopsis: java MJ.BatchCompiler [-threads <n>] [-l] [-cache <dir>] [-diag text|json|none] [-maxerrors <n>] [-pipeline] [-parallel] [-metrics <file>] [-ir] [-inline <n>] [-inlinereport] <directory or inputFileName>...");
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Result>> results = new ArrayList<Future<Result>>();
+		long start = System.nanoTime();
+		for (Path f: files) results.add(pool.submit(() -> compile(f)));
+
+		// summary in input order
+		int failed = 0, errors = 0;
+		long[] latency = new long[files.size()];
+		Writer metrics = metricsFile != null ? Files.newBufferedWriter(metricsFile) : null;
+		for (int i = 0; i < results.size(); i++) {
+			Result r = results.get(i).get();
+			latency[i] = r.nanos;
+			if (metrics != null && r.metrics != null) metrics.write(r.metrics.toJson(r.source.toString()) + "\n");
+			System.out.print(r.messages);
+			if (r.failure != null) {
+				failed++;
+				System.out.printf("%s: aborted (%s)%n", r.source, r.failure);
+			} else {
+				if (r.errors > 0) failed++;
+				System.out.printf("%s: %d errors, %.1f ms%s%n", r.source, r.errors, r.nanos / 1e6,
+					r.cached ? " (cached)" : "");
+			}
+			errors += r.errors;
+		}
+		pool.shutdown();
+		if (metrics != null) metrics.close();
+		System.out.printf("-- %d files, %d failed, %d errors, %d threads, %.1f ms%n",
+			files.size(), failed, errors, threads, (System.nanoTime() - start) / 1e6);
+		Arrays.sort(latency);
+		System.out.printf("-- latency p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+			percentile(latency, 50) / 1e6, percentile(latency, 90) / 1e6,
+			percentile(latency, 99) / 1e6, latency[latency.length - 1] / 1e6);
+	}
+
+}
@@ -7,8 +7,8 @@ such as assignments and jumps.
 package MJ.CodeGen;
 
 import java.io.*;
+import java.util.Arrays;
 import MJ.*;
-import static MJ.Parser.*;
 import MJ.SymTab.*;
 
 public class Code {
@@ -74,44 +74,63 @@ public class Code {
 		le = 3,
 		gt = 4,
 		ge = 5;
-	private static int[] inverse = {ne, eq, ge, gt, le, lt};
-	private static final int bufSize = 8192;
+	private static final int[] inverse = {ne, eq, ge, gt, le, lt};
+	private static final int bufSize = 8192;	// initial size of the code buffer
+	private static final int maxAdr = 0xFFFF;	// largest code address of jmp, jcc and call
+	static final int[] size = new int[trap + 1];	// instruction size by opcode
 
-	private static byte[] buf;	// code buffer
-	public static int pc;		// next free byte in code buffer
-	public static int mainPc;	// pc of main function (set by parser)
-	public static int dataSize;	// length of static data in words (set by parser)
+	static {
+		Arrays.fill(size, 1);
+		size[load] = 2; size[store] = 2;
+		size[getstatic] = 3; size[putstatic] = 3;
+		size[getfield] = 3; size[putfield] = 3;
+		size[const_] = 5;
+		size[new_] = 3; size[newarray] = 2;
+		for (int op = jmp; op <= jge; op++) size[op] = 3;
+		size[call] = 3; size[enter] = 3; size[trap] = 2;
+	}
+
+	private final Parser parser;	// receives error messages
+	byte[] buf;				// code buffer; doubled whenever it is full (also used by Peephole)
+	public int pc;			// next free byte in code buffer
+	public int mainPc;		// pc of main function (set by parser)
+	public int dataSize;	// length of static data in words (set by parser)
+
+	public Code(Parser parser) {
+		this.parser = parser;
+	}
+
+	private void error(String msg) {
+		parser.error(msg);
+	}
 
 	//--------------- code buffer access ----------------------
 
-	public static void put(int x) {
-		if (pc >= bufSize) {
-			if (pc == bufSize) Parser.error("program too large");
-			pc++;
-		} else
-			buf[pc++] = (byte)x;
+	public void put(int x) {
+		if (pc == buf.length) buf = Arrays.copyOf(buf, 2 * buf.length);
+		buf[pc++] = (byte)x;
 	}
 
-	public static void put2(int x) {
+	public void put2(int x) {
 		put(x>>8); put(x);
 	}
 
-	public static void put2(int pos, int x) {
+	public void put2(int pos, int x) {
 		int oldpc = pc; pc = pos; put2(x); pc = oldpc;
 	}
 
-	public static void put4(int x) {
+	public void put4(int x) {
 		put2(x>>16); put2(x);
 	}
 
-	public static int get(int pos) {
+	public int get(int pos) {
 		return buf[pos];
 	}
 
 	//----------------- instruction generation --------------
 
 	// Load the operand x to the expression stack
-	public static void load(Operand x) {
+	public void load(Operand x) {
 		switch(x.kind){
                     // Constant Value
                     case Operand.Con:
@@ -154,70 +173,155 @@ public class Code {
             x.kind = Operand.Stack;
 	}
 
+	// Load x so that its code ends up at pos, in front of the code emitted since pos.
+	// Only used within expressions, whose code contains no jumps that would need patching.
+	public void loadAt(int pos, Operand x) {
+		int end = pc;
+		load(x);
+		if (pos < end) {
+			byte[] moved = Arrays.copyOfRange(buf, pos, end);
+			int n = pc - end;
+			System.arraycopy(buf, end, buf, pos, n);
+			System.arraycopy(moved, 0, buf, pos + n, moved.length);
+		}
+	}
+
+	// Remove the code emitted since pos and return it, e.g. to emit it again
+	// elsewhere; like loadAt only for expression code, which has no jumps.
+	public byte[] cut(int pos) {
+		byte[] b = Arrays.copyOfRange(buf, pos, pc);
+		pc = pos;
+		return b;
+	}
+
+	public void put(byte[] b) {
+		for (byte x: b) put(x);
+	}
+
 	// Generate an assignment x = y
-	public static void assign(Operand x, Operand y) {
+	public void assign(Operand x, Operand y) {
             load(y);
             switch(x.kind){
                 case Operand.Local:
-                    if(x.adr <= 3) put(store0 + x.adr);
+                    if(0 <= x.adr && x.adr <= 3) put(store0 + x.adr);
                     else {put(store); put(x.adr);}
+                    break;
 
                 case Operand.Static:
-                    if(x.adr <= 3) put(putstatic + x.adr);
-                    else {put(putstatic); put(x.adr); }
+                    put(putstatic); put2(x.adr);
+                    break;
 
                 case Operand.Fld:
-                    if(x.adr <= 3) put(putfield + x.adr);
-                    else {put(putfield); put(x.adr); }
+                    put(putfield); put2(x.adr);
+                    break;
 
                 case Operand.Elem:
-                    if(x.adr <= 3) put(astore + x.adr);
-                    else {put(astore); put(x.adr); }
-                default: error("");
+                    if(x.type == Tab.charType) put(bastore);
+                    else put(astore);
+                    break;
+
+                default: error("Cannot assign to this value!");
             }
 	}
 
 	//------------- jumps ---------------
 
+	// Code addresses are encoded in 2 bytes
+	private void checkAdr(int adr) {
+		if (adr > maxAdr) parser.error(Diagnostics.limit, "program too large: code address " + adr);
+	}
+
 	// Unconditional jump
-	public static void putJump(int adr) {
+	public void putJump(int adr) {
+		checkAdr(adr);
 		put(jmp); put2(adr);
 	}
 
 	// Conditional jump if op is false
-	public static void putFalseJump(int op, int adr) {
+	public void putFalseJump(int op, int adr) {
+		checkAdr(adr);
 		put(jeq + inverse[op]); put2(adr);
 	}
 
+	// Conditional jump if op is true
+	public void putTrueJump(int op, int adr) {
+		checkAdr(adr);
+		put(jeq + op); put2(adr);
+	}
+
+	// Call of the method at adr
+	public void putCall(int adr) {
+		checkAdr(adr);
+		put(call); put2(adr);
+	}
+
 	// patch jump target at adr so that it jumps to the current pc
-	public static void fixup(int adr) {
+	public void fixup(int adr) {
+		parser.metrics.fixups++;
+		checkAdr(pc);
 		put2(adr, pc);
 	}
 
+	//------------- linking ---------------
+
+	// Append the code of a method that was compiled into its own buffer f
+	// (see Parser.Methods). Jump targets in f are addresses within f; a call
+	// operand n is the number of the method methods[n-1], which has been
+	// appended already.
+	public void link(Code f, Obj[] methods) {
+		int base = pc;
+		for (int a = 0; a < f.pc; ) {
+			int op = f.buf[a], n = size[op];
+			for (int i = 0; i < n; i++) put(f.buf[a + i]);
+			if (op >= jmp && op <= call) {
+				int x = (f.buf[a+1] & 0xff) << 8 | f.buf[a+2] & 0xff;
+				int adr = op == call ? methods[x - 1].adr : base + x;
+				checkAdr(adr);
+				put2(pc - 2, adr);
+			}
+			a += n;
+		}
+	}
+
 	//------------------------------------
 
 	// initialize code buffer
-	public static void init() {
+	public void init() {
 		buf = new byte[bufSize];
 		pc = 0; mainPc = -1;
 	}
 
+	// List the instructions between the addresses from (an instruction start) and to
+	public void list(Appendable out, int from, int to) throws IOException {
+		Decoder.decode(buf, from, Math.min(to, pc), out);
+	}
+
+	// List the whole code buffer
+	public void list(Appendable out) throws IOException {
+		list(out, 0, pc);
+	}
+
 	// Write the code buffer to the output stream
-	public static void write(OutputStream s) {
+	// header: "MJ", codeSize, dataSize, mainPc (4 bytes each, big endian)
+	public void write(OutputStream s) {
 		int codeSize;
+		long start = System.nanoTime();
 		try {
 			codeSize = pc;
-			Decoder.decode(buf, 0, codeSize);
-			put('M'); put('J');
-			put4(codeSize);
-			put4(dataSize);
-			put4(mainPc);
-			s.write(buf, codeSize, pc - codeSize);	// header
-			s.write(buf, 0, codeSize);				// code
-			s.close();
-		} catch(IOException e) {
-			Parser.error("cannot write code file");
+			DataOutputStream out = new DataOutputStream(s);
+			out.writeByte('M'); out.writeByte('J');
+			out.writeInt(codeSize);
+			out.writeInt(dataSize);
+			out.writeInt(mainPc);		// header
+			out.write(buf, 0, codeSize);	// code
+			out.close();
+		} catch(IOException e) {	// after parsing: no source position, and no limit to stop at
+			parser.errors++;
+			try {
+				parser.diag.report(Diagnostics.io, 0, 0, "cannot write code file: " + e.getMessage());
+			} catch (Diagnostics.TooManyErrors x) {}
 		}
+		parser.metrics.time(Metrics.write, start);
 	}
 }
 
@@ -3,6 +3,8 @@
 */
 package MJ.CodeGen;
 
+import java.io.*;
+
 public class Decoder {
 
 	private static final int  // instruction codes
@@ -61,48 +63,85 @@ public class Decoder {
 		bprint      = 53,
 		trap		    = 54;
 
-	private static byte[] code;		// code buffer
-	private static int cur;			// address of next byte to decode
-	private static int adr;			// address of currently decoded instruction
+	private final byte[] code;	// code buffer
+	private int cur;			// address of next byte to decode
+	private int adr;			// address of currently decoded instruction
+	private final Appendable out;	// receives the listing
+	private final StringBuilder line = new StringBuilder(32);	// reused for every instruction
+
+	private Decoder(byte[] c, int off, Appendable out) {
+		code = c; cur = off; adr = off; this.out = out;
+	}
 
-	private static int get() {
+	private int get() {
 		return ((int)code[cur++])<<24>>>24;
 	}
 
-	private static int get2() {
+	private int get2() {
 		return (get()*256 + get())<<16>>16;
 	}
 
-	private static int get4() {
+	private int get4() {
 		return (get2()<<16) + (get2()<<16>>>16);
 	}
 
-	private static void P(String s) {
-		System.out.println(adr+": "+s);
+	private int getAdr() { // code addresses are unsigned
+		return get()*256 + get();
+	}
+
+	private void P(String op) throws IOException {
+		line.setLength(0);
+		line.append(adr).append(": ").append(op).append('\n');
+		out.append(line);
 		adr = cur;
 	}
 
-	public static void decode(byte[] c, int off, int len) {
-		int op;
-		code = c;
-		cur = off;
+	private void P(String op, int a) throws IOException {
+		line.setLength(0);
+		line.append(adr).append(": ").append(op).append(' ').append(a).append('\n');
+		out.append(line);
+		adr = cur;
+	}
+
+	private void P(String op, int a, int b) throws IOException {
+		line.setLength(0);
+		line.append(adr).append(": ").append(op).append(' ').append(a).append(' ').append(b).append('\n');
+		out.append(line);
 		adr = cur;
+	}
+
+	// List the instructions from address "from" (an instruction start) up to "to".
+	// A fresh Decoder per call, so concurrent compilations can decode safely.
+	public static void decode(byte[] c, int from, int to, Appendable out) throws IOException {
+		new Decoder(c, from, out).decode(to);
+	}
+
+	// List the instructions to System.out
+	public static void decode(byte[] c, int off, int len) {
+		Writer w = new BufferedWriter(new OutputStreamWriter(System.out));
+		try {
+			decode(c, off, len, w);
+			w.flush();
+		} catch (IOException e) {}
+	}
+
+	private void decode(int len) throws IOException {
 		while (cur < len) {
 			switch(get()) {
-				case load:      P("load "+get()); break;
+				case load:      P("load", get()); break;
 				case load0:     P("load0"); break;
 				case load1:     P("load1"); break;
 				case load2:     P("load2"); break;
 				case load3:     P("load3"); break;
-				case store:     P("store "+get()); break;
+				case store:     P("store", get()); break;
 				case store0:    P("store0"); break;
 				case store1:    P("store1"); break;
 				case store2:    P("store2"); break;
 				case store3:    P("store3"); break;
-				case getstatic: P("getstatic "+get2()); break;
-				case putstatic: P("putstatic "+get2()); break;
-				case getfield:  P("getfield "+get2()); break;
-				case putfield:  P("putfield "+get2()); break;
+				case getstatic: P("getstatic", get2()); break;
+				case putstatic: P("putstatic", get2()); break;
+				case getfield:  P("getfield", get2()); break;
+				case putfield:  P("putfield", get2()); break;
 				case const0:    P("const0"); break;
 				case const1:    P("const1"); break;
 				case const2:    P("const2"); break;
@@ -110,7 +149,7 @@ public class Decoder {
 				case const4:    P("const4"); break;
 				case const5:    P("const5"); break;
 				case const_m1:  P("const_m1"); break;
-				case const_:    P("const "+get4()); break;
+				case const_:    P("const", get4()); break;
 				case add:       P("add"); break;
 				case sub:       P("sub"); break;
 				case mul:       P("mul"); break;
@@ -119,30 +158,30 @@ public class Decoder {
 				case neg:       P("neg"); break;
 				case shl:       P("shl"); break;
 				case shr:       P("shr"); break;
-				case new_:      P("new "+get2()); break;
-				case newarray:  P("newarray "+get()); break;
+				case new_:      P("new", get2()); break;
+				case newarray:  P("newarray", get()); break;
 				case aload:     P("aload"); break;
 				case astore:    P("astore"); break;
 				case baload:    P("baload"); break;
 				case bastore:   P("bastore"); break;
 				case arraylength: P("arraylength"); break;
 				case pop:       P("pop"); break;
-				case jmp:       P("jmp "+get2()); break;
-				case jeq:       P("jeq "+get2()); break;
-				case jne:       P("jne "+get2()); break;
-				case jlt:       P("jlt "+get2()); break;
-				case jle:       P("jle "+get2()); break;
-				case jgt:       P("jgt "+get2()); break;
-				case jge:       P("jge "+get2()); break;
-				case call:      P("call "+get2()); break;
+				case jmp:       P("jmp", getAdr()); break;
+				case jeq:       P("jeq", getAdr()); break;
+				case jne:       P("jne", getAdr()); break;
+				case jlt:       P("jlt", getAdr()); break;
+				case jle:       P("jle", getAdr()); break;
+				case jgt:       P("jgt", getAdr()); break;
+				case jge:       P("jge", getAdr()); break;
+				case call:      P("call", getAdr()); break;
 				case return_:   P("return"); break;
-				case enter:     P("enter "+get()+" "+get()); break;
+				case enter:     P("enter", get(), get()); break;
 				case exit:      P("exit"); break;
 				case read:      P("read"); break;
 				case print:     P("print"); break;
 				case bread:     P("bread"); break;
 				case bprint:    P("bprint"); break;
-				case trap:      P("trap "+get()); break;
+				case trap:      P("trap", get()); break;
 				default:        P("-- error--"); break;
 			}
 		}
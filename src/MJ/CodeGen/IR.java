@@ -0,0 +1,387 @@
+/* MicroJava Intermediate Representation
+   =====================================
+The code of every method as basic blocks with an explicit control flow
+graph, for optimizations that look beyond a few adjacent instructions.
+The Parser still emits its code through Code; with Parser.ir the finished
+code is turned into an IR, optimized and lowered back into the Code.
+
+Instructions are rows of the int arrays op, arg and next; next links the
+instructions of a block into a list (from first[b] to last[b]), so passes
+can drop (op = nop) and insert instructions without moving any others.
+They keep the stack form of the MicroJava code, normalized so that each
+operation has a single opcode:
+  load0..load3, store0..store3  ->  load n, store n
+  const0..const5, const_m1      ->  const_ val
+  jmp, jeq ... jge              ->  arg: target block
+  call                          ->  arg: called method
+  enter                         ->  arg: nPars << 8 | nLocals
+  all others                    ->  arg: their operand (if any)
+Lowering picks the shortest encodings again.
+
+A block ends with a jump, return_ or trap, or falls through to the block
+fall[b]. The blocks of a method are laid out from entry[m] along
+nextBlock; lowering adds a jmp where a block does not fall through to the
+next one in the layout and drops jumps to the next one, so passes may
+reorder blocks freely. A method whose entry is none has been dropped
+(see Inliner) and gets no code.
+*/
+package MJ.CodeGen;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class IR {
+	public static final int none = -1;
+	public static final int nop  = 0;	// dropped instruction
+
+	// instructions
+	public int[] op   = new int[256];
+	public int[] arg  = new int[256];
+	public int[] next = new int[256];	// next instruction of the block or none
+	public int   nInstrs;
+
+	// basic blocks
+	public int[] first     = new int[64];	// first instruction or none
+	public int[] last      = new int[64];	// last instruction or none
+	public int[] fall      = new int[64];	// block reached by falling through or none
+	public int[] nextBlock = new int[64];	// next block in the layout or none
+	public int[] meth      = new int[64];	// method of the block
+	public int   nBlocks;
+
+	// methods
+	public int[] entry = new int[16];	// first block or none
+	public int[] adr   = new int[16];	// address in the code the IR was built from
+	public int   nMeths;
+	public int   mainMeth;
+
+	private static boolean isJump(int op) {
+		return op >= Code.jmp && op <= Code.jge;
+	}
+
+	// Build the IR of the code in code.buf[0..code.pc); the code must be
+	// error-free and start with the enter of the first method
+	public IR(Code code) {
+		byte[] buf = code.buf;
+		int len = code.pc;
+		boolean[] leader = new boolean[len + 1];
+		for (int adr = 0; adr < len; ) {
+			int op = buf[adr], succ = adr + Code.size[op];
+			if (isJump(op)) {
+				leader[(buf[adr+1] & 0xff) << 8 | buf[adr+2] & 0xff] = true;
+				leader[succ] = true;
+			} else if (op == Code.return_ || op == Code.trap) leader[succ] = true;
+			adr = succ;
+		}
+		int[] blockAt = new int[len + 1];	// block of each instruction address
+		int[] methAt = new int[len + 1];	// method starting at each address
+		int b = none, m = none;
+		for (int adr = 0; adr < len; ) {
+			int op = buf[adr], succ = adr + Code.size[op];
+			if (op == Code.enter) {
+				m = newMethod();
+				methAt[adr] = m;
+				this.adr[m] = adr;
+				entry[m] = b = newBlock(m);
+			} else if (leader[adr]) {
+				int nb = newBlock(m);
+				nextBlock[b] = nb;
+				int prev = op(last[b]);
+				if (!(prev == Code.jmp || prev == Code.return_ || prev == Code.trap)) fall[b] = nb;
+				b = nb;
+			}
+			blockAt[adr] = b;
+			int x = 0;
+			switch (op) {
+				case Code.load0: case Code.load1: case Code.load2: case Code.load3:
+					x = op - Code.load0; op = Code.load; break;
+				case Code.store0: case Code.store1: case Code.store2: case Code.store3:
+					x = op - Code.store0; op = Code.store; break;
+				case Code.const0: case Code.const1: case Code.const2:
+				case Code.const3: case Code.const4: case Code.const5:
+					x = op - Code.const0; op = Code.const_; break;
+				case Code.const_m1:
+					x = -1; op = Code.const_; break;
+				case Code.const_:
+					x = buf[adr+1] << 24 | (buf[adr+2] & 0xff) << 16 | (buf[adr+3] & 0xff) << 8 | buf[adr+4] & 0xff;
+					break;
+				case Code.load: case Code.store: case Code.newarray: case Code.trap:
+					x = buf[adr+1] & 0xff; break;
+				case Code.enter:
+					x = (buf[adr+1] & 0xff) << 8 | buf[adr+2] & 0xff; break;
+				default:
+					if (Code.size[op] == 3) x = (buf[adr+1] & 0xff) << 8 | buf[adr+2] & 0xff;
+			}
+			append(b, newInstr(op, x));
+			adr = succ;
+		}
+		for (int i = 0; i < nInstrs; i++) {
+			if (isJump(op[i])) arg[i] = blockAt[arg[i]];
+			else if (op[i] == Code.call) arg[i] = methAt[arg[i]];
+		}
+		mainMeth = methAt[code.mainPc];
+	}
+
+	private int op(int i) {
+		return i == none ? nop : op[i];
+	}
+
+	//------------------ construction ---------------------
+
+	public int newMethod() {
+		if (nMeths == entry.length) {
+			entry = Arrays.copyOf(entry, 2 * nMeths);
+			adr = Arrays.copyOf(adr, 2 * nMeths);
+		}
+		entry[nMeths] = none;
+		return nMeths++;
+	}
+
+	// New empty block of method m, not yet in the layout
+	public int newBlock(int m) {
+		if (nBlocks == first.length) {
+			int n = 2 * nBlocks;
+			first = Arrays.copyOf(first, n); last = Arrays.copyOf(last, n);
+			fall = Arrays.copyOf(fall, n); nextBlock = Arrays.copyOf(nextBlock, n);
+			meth = Arrays.copyOf(meth, n);
+		}
+		first[nBlocks] = last[nBlocks] = fall[nBlocks] = nextBlock[nBlocks] = none;
+		meth[nBlocks] = m;
+		return nBlocks++;
+	}
+
+	// New instruction that is not in any block yet
+	public int newInstr(int op, int arg) {
+		if (nInstrs == this.op.length) {
+			int n = 2 * nInstrs;
+			this.op = Arrays.copyOf(this.op, n); this.arg = Arrays.copyOf(this.arg, n);
+			next = Arrays.copyOf(next, n);
+		}
+		this.op[nInstrs] = op; this.arg[nInstrs] = arg; next[nInstrs] = none;
+		return nInstrs++;
+	}
+
+	// Append instruction i to block b
+	public void append(int b, int i) {
+		if (last[b] == none) first[b] = i; else next[last[b]] = i;
+		last[b] = i;
+		next[i] = none;
+	}
+
+	// Insert instruction i after instruction after of block b
+	public void insertAfter(int b, int after, int i) {
+		next[i] = next[after];
+		next[after] = i;
+		if (last[b] == after) last[b] = i;
+	}
+
+	//------------------ control flow graph ---------------------
+
+	// Jump target of block b or none
+	public int target(int b) {
+		int i = last[b];
+		return i != none && isJump(op[i]) ? arg[i] : none;
+	}
+
+	// Number of control flow edges into each block
+	public int[] predCount() {
+		int[] n = new int[nBlocks];
+		for (int b = 0; b < nBlocks; b++) {
+			if (fall[b] != none) n[fall[b]]++;
+			int t = target(b);
+			if (t != none) n[t]++;
+		}
+		return n;
+	}
+
+	// Predecessors of every block
+	public int[][] preds() {
+		int[] n = predCount();
+		int[][] p = new int[nBlocks][];
+		for (int b = 0; b < nBlocks; b++) p[b] = new int[n[b]];
+		Arrays.fill(n, 0);
+		for (int b = 0; b < nBlocks; b++) {
+			if (fall[b] != none) p[fall[b]][n[fall[b]]++] = b;
+			int t = target(b);
+			if (t != none) p[t][n[t]++] = b;
+		}
+		return p;
+	}
+
+	// Loop nesting depth of every block: the number of natural loops that contain it
+	public int[] loopDepth() {
+		int[] depth = new int[nBlocks];
+		for (int[] loop: loops())
+			for (int b: loop) depth[b]++;
+		return depth;
+	}
+
+	// The natural loops, each as its blocks with the header first. A loop is
+	// found by its back edges b -> h (edges to a block on the current
+	// depth-first search path; MicroJava code is reducible) and consists of
+	// h and all blocks that reach some b without passing h. The back edges
+	// to the same header (e.g. from both arms of an if at the end of a
+	// while body) make one loop.
+	public int[][] loops() {
+		int[][] loops = new int[8][];
+		int nLoops = 0;
+		int[] loopOf = new int[nBlocks];	// loop with header h or none
+		Arrays.fill(loopOf, none);
+		int[][] preds = preds();
+		int[] state = new int[nBlocks];	// 0: not visited, 1: on the search path, 2: done
+		int[] path = new int[nBlocks], edge = new int[nBlocks];
+		boolean[] inLoop = new boolean[nBlocks];
+		int[] body = new int[nBlocks];
+		for (int m = 0; m < nMeths; m++) {
+			if (entry[m] == none) continue;
+			int sp = 0;
+			path[sp] = entry[m]; edge[sp++] = 0;
+			state[entry[m]] = 1;
+			while (sp > 0) {
+				int b = path[sp-1], e = edge[sp-1]++, s;
+				if (e == 0) s = fall[b];
+				else if (e == 1) s = target(b);
+				else {
+					state[b] = 2; sp--;
+					continue;
+				}
+				if (s == none) continue;
+				if (state[s] == 0) {
+					state[s] = 1;
+					path[sp] = s; edge[sp++] = 0;
+				} else if (state[s] == 1) {	// back edge b -> s
+					int n = 0, work = 0, k = loopOf[s];
+					if (k != none) for (int x: loops[k]) { inLoop[x] = true; body[n++] = x; }
+					else { inLoop[s] = true; body[n++] = s; }
+					if (!inLoop[b]) { inLoop[b] = true; body[n++] = b; }
+					while (work < n) {
+						int x = body[work++];
+						if (x == s) continue;
+						for (int p: preds[x])
+							if (!inLoop[p]) { inLoop[p] = true; body[n++] = p; }
+					}
+					for (int i = 0; i < n; i++) inLoop[body[i]] = false;
+					if (k != none) loops[k] = Arrays.copyOf(body, n);
+					else {
+						if (nLoops == loops.length) loops = Arrays.copyOf(loops, 2 * nLoops);
+						loopOf[s] = nLoops;
+						loops[nLoops++] = Arrays.copyOf(body, n);
+					}
+				}
+			}
+		}
+		return Arrays.copyOf(loops, nLoops);
+	}
+
+	// Live locals at the start (live[0][b]) and the end (live[1][b]) of
+	// every block b of method m; null for the blocks of other methods
+	public BitSet[][] liveness(int m) {
+		BitSet[] in = new BitSet[nBlocks], out = new BitSet[nBlocks];
+		BitSet[] use = new BitSet[nBlocks], def = new BitSet[nBlocks];	// read before written, written
+		int n = 0;
+		for (int b = entry[m]; b != none; b = nextBlock[b]) n++;
+		int[] blocks = new int[n];
+		n = 0;
+		for (int b = entry[m]; b != none; b = nextBlock[b]) {
+			blocks[n++] = b;
+			in[b] = new BitSet(); out[b] = new BitSet();
+			use[b] = new BitSet(); def[b] = new BitSet();
+			for (int i = first[b]; i != none; i = next[i]) {
+				if (op[i] == Code.load) {
+					if (!def[b].get(arg[i])) use[b].set(arg[i]);
+				} else if (op[i] == Code.store) def[b].set(arg[i]);
+			}
+		}
+		for (boolean changed = true; changed; ) {
+			changed = false;
+			for (int k = n - 1; k >= 0; k--) {
+				int b = blocks[k], t = target(b);
+				BitSet o = new BitSet();
+				if (fall[b] != none) o.or(in[fall[b]]);
+				if (t != none) o.or(in[t]);
+				BitSet i = (BitSet)o.clone();
+				i.andNot(def[b]);
+				i.or(use[b]);
+				out[b] = o;
+				if (!i.equals(in[b])) {
+					in[b] = i;
+					changed = true;
+				}
+			}
+		}
+		return new BitSet[][] {in, out};
+	}
+
+	//------------------ lowering ---------------------
+
+	private boolean dropped(int b, int i) {	// jmp to the next block in the layout
+		return op[i] == Code.jmp && arg[i] == nextBlock[b];
+	}
+
+	private boolean needsJump(int b) {	// falls through to a block that does not follow
+		return fall[b] != none && fall[b] != nextBlock[b];
+	}
+
+	private static int constSize(int val) {
+		return val >= -1 && val <= 5 ? 1 : 5;
+	}
+
+	private int size(int i) {
+		switch (op[i]) {
+			case nop: return 0;
+			case Code.load: case Code.store: return arg[i] <= 3 ? 1 : 2;
+			case Code.const_: return constSize(arg[i]);
+			default: return Code.size[op[i]];
+		}
+	}
+
+	// Replace the code in code.buf by the lowered IR; returns false
+	// (and leaves code unchanged) if the code would exceed 64 KB
+	public boolean lower(Code code) {
+		int[] adr = new int[nBlocks];
+		int pc = 0;
+		for (int m = 0; m < nMeths; m++)
+			for (int b = entry[m]; b != none; b = nextBlock[b]) {
+				adr[b] = pc;
+				for (int i = first[b]; i != none; i = next[i])
+					if (!dropped(b, i)) pc += size(i);
+				if (needsJump(b)) pc += Code.size[Code.jmp];
+			}
+		if (pc > 0xffff) return false;
+		code.buf = new byte[Math.max(pc, 16)];
+		code.pc = 0;
+		for (int m = 0; m < nMeths; m++)
+			for (int b = entry[m]; b != none; b = nextBlock[b]) {
+				for (int i = first[b]; i != none; i = next[i]) {
+					if (op[i] == nop || dropped(b, i)) continue;
+					emit(code, op[i], arg[i], adr);
+				}
+				if (needsJump(b)) emit(code, Code.jmp, fall[b], adr);
+			}
+		code.mainPc = adr[entry[mainMeth]];
+		return true;
+	}
+
+	private void emit(Code code, int op, int x, int[] adr) {
+		switch (op) {
+			case Code.load: case Code.store:
+				if (x <= 3) code.put((op == Code.load ? Code.load0 : Code.store0) + x);
+				else { code.put(op); code.put(x); }
+				break;
+			case Code.const_:
+				if (0 <= x && x <= 5) code.put(Code.const0 + x);
+				else if (x == -1) code.put(Code.const_m1);
+				else { code.put(Code.const_); code.put4(x); }
+				break;
+			case Code.newarray: case Code.trap:
+				code.put(op); code.put(x); break;
+			case Code.enter:
+				code.put(op); code.put(x >> 8); code.put(x); break;
+			case Code.call:
+				code.put(op); code.put2(adr[entry[x]]); break;
+			default:
+				code.put(op);
+				if (isJump(op)) code.put2(adr[x]);
+				else if (Code.size[op] == 3) code.put2(x);
+		}
+	}
+}
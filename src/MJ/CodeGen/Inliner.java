@@ -0,0 +1,191 @@
+/* MicroJava Inliner
+   =================
+Expands calls of small leaf methods in place (an IR pass, see Parser.ir).
+A method is inlined if it calls no other method (so it is not recursive)
+and has at most maxSize instructions besides enter, exit and return.
+At each call site:
+  - the caller's block is split after the call;
+  - the arguments, which are on the expression stack, are stored into
+    new locals of the caller, and the callee's other locals that may be
+    read before they are written are cleared, as enter would;
+  - the reachable blocks of the callee are copied, with its locals moved
+    to the new ones and each return replaced by a jump behind the call.
+The result of a function stays on the expression stack, as after a call.
+A caller whose calls have all been inlined may become a leaf itself, so
+this is repeated a few times. Methods whose calls were all inlined are
+dropped. LocalAllocator later packs the new locals into the frame.
+
+The built-in methods chr, ord and len never get a call: Parser.Call
+expands them already (no code, resp. arraylength).
+*/
+package MJ.CodeGen;
+
+import java.util.*;
+
+public class Inliner {
+	public static final int defaultSize = 16;	// instructions
+	private static final int rounds = 4;
+
+	public int maxSize = defaultSize;	// largest method that is inlined (in instructions)
+	public int inlined;					// call sites expanded by the last optimize
+	public int dropped;					// methods dropped by the last optimize
+	public Map<Integer, String> names;	// method name by address (see IR.adr); may be null
+	public StringBuilder report;		// one line per inlined method and caller; may be null
+
+	private IR ir;
+
+	public void optimize(IR ir) {
+		this.ir = ir;
+		inlined = 0; dropped = 0;
+		int[] sites = new int[ir.nMeths];	// inlined calls of each method
+		for (int round = 0; round < rounds; round++) {
+			boolean changed = false;
+			for (int m = 0; m < ir.nMeths; m++) {
+				if (m == ir.mainMeth || ir.entry[m] == IR.none) continue;
+				int size = size(m);
+				if (size < 0 || size > maxSize) continue;
+				int[] perCaller = new int[ir.nMeths];
+				for (int b = 0; b < ir.nBlocks; b++) {	// including the blocks split off below
+					int caller = ir.meth[b];
+					if (caller == m || ir.entry[caller] == IR.none) continue;
+					for (int i = ir.first[b]; i != IR.none; i = ir.next[i]) {
+						if (ir.op[i] == Code.call && ir.arg[i] == m && fits(caller, m)) {
+							expand(b, i, m);
+							perCaller[caller]++;
+							break;	// the rest of b is in a new block now
+						}
+					}
+				}
+				for (int c = 0; c < ir.nMeths; c++) {
+					if (perCaller[c] == 0) continue;
+					sites[m] += perCaller[c];
+					inlined += perCaller[c];
+					changed = true;
+					if (report != null)
+						report.append("-- inlined ").append(name(m)).append(" (").append(size)
+							.append(" instructions) into ").append(name(c)).append(", ")
+							.append(perCaller[c]).append(perCaller[c] == 1 ? " call\n" : " calls\n");
+				}
+			}
+			if (!changed) break;
+		}
+
+		// drop the methods whose calls were all inlined
+		boolean[] called = new boolean[ir.nMeths];
+		for (int b = 0; b < ir.nBlocks; b++) {
+			if (ir.entry[ir.meth[b]] == IR.none) continue;
+			for (int i = ir.first[b]; i != IR.none; i = ir.next[i])
+				if (ir.op[i] == Code.call) called[ir.arg[i]] = true;
+		}
+		for (int m = 0; m < ir.nMeths; m++) {
+			if (sites[m] > 0 && !called[m] && m != ir.mainMeth) {
+				ir.entry[m] = IR.none;
+				dropped++;
+				if (report != null) report.append("-- dropped ").append(name(m)).append('\n');
+			}
+		}
+	}
+
+	private String name(int m) {
+		String s = names != null ? names.get(ir.adr[m]) : null;
+		return s != null ? s : "method@" + ir.adr[m];
+	}
+
+	private int enter(int m) {
+		return ir.first[ir.entry[m]];
+	}
+
+	// Number of instructions of leaf method m (without enter, exit, return), or -1
+	private int size(int m) {
+		int n = 0;
+		for (int b = ir.entry[m]; b != IR.none; b = ir.nextBlock[b])
+			for (int i = ir.first[b]; i != IR.none; i = ir.next[i]) {
+				switch (ir.op[i]) {
+					case Code.call: return -1;
+					case IR.nop: case Code.enter: case Code.exit: case Code.return_: break;
+					default: n++;
+				}
+			}
+		return n;
+	}
+
+	// The locals of m fit into the frame of caller
+	private boolean fits(int caller, int m) {
+		return (ir.arg[enter(caller)] & 0xff) + (ir.arg[enter(m)] & 0xff) <= 255;
+	}
+
+	// Blocks of m that are reachable from its entry
+	private boolean[] reachable(int m) {
+		boolean[] reach = new boolean[ir.nBlocks];
+		int[] work = new int[ir.nBlocks];
+		int n = 0;
+		reach[ir.entry[m]] = true;
+		work[n++] = ir.entry[m];
+		while (n > 0) {
+			int b = work[--n];
+			int[] succ = {ir.fall[b], ir.target(b)};
+			for (int s: succ)
+				if (s != IR.none && !reach[s]) { reach[s] = true; work[n++] = s; }
+		}
+		return reach;
+	}
+
+	// Replace the call c of m in block b by the code of m
+	private void expand(int b, int c, int m) {
+		int caller = ir.meth[b], enter = enter(caller);
+		int base = ir.arg[enter] & 0xff;
+		int nPars = ir.arg[enter(m)] >> 8, nLocals = ir.arg[enter(m)] & 0xff;
+		ir.arg[enter] += nLocals;
+
+		// split b after the call
+		int cont = ir.newBlock(caller);
+		if (ir.next[c] != IR.none) {
+			ir.first[cont] = ir.next[c];
+			ir.last[cont] = ir.last[b];
+		}
+		ir.fall[cont] = ir.fall[b];
+		ir.next[c] = IR.none;
+		ir.last[b] = c;
+		ir.op[c] = IR.nop;
+
+		// arguments into the new locals, and cleared locals as after enter
+		for (int k = nPars - 1; k >= 0; k--) ir.append(b, ir.newInstr(Code.store, base + k));
+		BitSet live = ir.liveness(m)[0][ir.entry[m]];
+		for (int k = nPars; k < nLocals; k++)
+			if (live.get(k)) {
+				ir.append(b, ir.newInstr(Code.const_, 0));
+				ir.append(b, ir.newInstr(Code.store, base + k));
+			}
+
+		// copies of the reachable blocks of m, laid out between b and cont
+		boolean[] reach = reachable(m);
+		int[] copy = new int[reach.length];
+		int last = b, after = ir.nextBlock[b];
+		for (int x = ir.entry[m]; x != IR.none; x = ir.nextBlock[x]) {
+			if (!reach[x]) continue;
+			copy[x] = ir.newBlock(caller);
+			ir.nextBlock[last] = copy[x];
+			last = copy[x];
+		}
+		ir.nextBlock[last] = cont;
+		ir.nextBlock[cont] = after;
+		for (int x = ir.entry[m]; x != IR.none; x = ir.nextBlock[x]) {
+			if (!reach[x]) continue;
+			int y = copy[x];
+			for (int i = ir.first[x]; i != IR.none; i = ir.next[i]) {
+				int op = ir.op[i], a = ir.arg[i];
+				switch (op) {
+					case IR.nop: case Code.enter: case Code.exit: continue;
+					case Code.return_: op = Code.jmp; a = cont; break;
+					case Code.load: case Code.store: a += base; break;
+					case Code.jmp: case Code.jeq: case Code.jne:
+					case Code.jlt: case Code.jle: case Code.jgt: case Code.jge:
+						a = copy[a]; break;
+				}
+				ir.append(y, ir.newInstr(op, a));
+			}
+			ir.fall[y] = ir.fall[x] == IR.none ? IR.none : copy[ir.fall[x]];
+		}
+		ir.fall[b] = copy[ir.entry[m]];
+	}
+}
@@ -0,0 +1,126 @@
+/* MicroJava Program on the JVM
+   ============================
+Base class of the classes made by JvmTranslator. A translated program
+keeps its static data in data and its objects and arrays in an int heap
+laid out as in Run (address 0 is null, arrays start with their length);
+the generated code calls the helpers below for heap access and I/O.
+*/
+package MJ.CodeGen;
+
+import java.io.*;
+import java.util.Arrays;
+import MJ.Run;
+
+public abstract class JvmProgram {
+	private static final int heapSize = 65536;	// initial heap size in words
+
+	private final int dataSize;
+	protected int[] data;		// static variables
+	private int[] heap;
+	private int free;			// next free heap word
+	private InputStream in;
+	private Writer out;
+
+	protected JvmProgram(int dataSize) {
+		this.dataSize = dataSize;
+	}
+
+	// The translated main method
+	protected abstract void main();
+
+	// Execute the program until main returns
+	public void run(InputStream in, Writer out) throws IOException {
+		this.in = in; this.out = out;
+		data = new int[dataSize];
+		heap = new int[heapSize];
+		free = 1;		// address 0 is null
+		try {
+			main();
+		} catch (ArithmeticException e) {
+			throw new Run.VMError("division by zero");
+		} catch (StackOverflowError e) {
+			throw new Run.VMError("stack overflow");
+		} catch (ArrayIndexOutOfBoundsException e) {	// field offset or static address out of range
+			throw new Run.VMError("stack overflow or illegal address");
+		} finally {
+			out.flush();
+		}
+	}
+
+	//------------- helpers called by the generated code ---------------
+
+	private int alloc(int words) {
+		if (words < 0) throw new Run.VMError("negative allocation size");
+		if (free + words > heap.length) {
+			if (free + words < 0) throw new Run.VMError("out of memory");
+			heap = Arrays.copyOf(heap, Math.max(2 * heap.length, free + words));
+		}
+		int adr = free;
+		free += words;
+		return adr;
+	}
+
+	private int element(int adr, int idx) {
+		if (adr == 0) throw new Run.VMError("null reference used");
+		if (idx < 0 || idx >= heap[adr]) throw new Run.VMError("index out of bounds");
+		return adr + 1 + idx;
+	}
+
+	protected final int newObj(int n) {
+		return alloc(n);
+	}
+
+	protected final int newArray(int n) {
+		if (n < 0) throw new Run.VMError("negative array size");
+		int adr = alloc(n + 1);
+		heap[adr] = n;
+		return adr;
+	}
+
+	protected final int getfield(int adr, int off) {
+		if (adr == 0) throw new Run.VMError("null reference used");
+		return heap[adr + off];
+	}
+
+	protected final void putfield(int adr, int val, int off) {
+		if (adr == 0) throw new Run.VMError("null reference used");
+		heap[adr + off] = val;
+	}
+
+	protected final int aload(int adr, int idx) {
+		return heap[element(adr, idx)];
+	}
+
+	protected final void astore(int adr, int idx, int val) {
+		heap[element(adr, idx)] = val;
+	}
+
+	protected final void bastore(int adr, int idx, int val) {
+		heap[element(adr, idx)] = (char)val;
+	}
+
+	protected final int arraylength(int adr) {
+		if (adr == 0) throw new Run.VMError("null reference used");
+		return heap[adr];
+	}
+
+	protected final int read() throws IOException {
+		return Run.readInt(in);
+	}
+
+	protected final int bread() throws IOException {
+		return in.read();
+	}
+
+	protected final void print(int val, int width) throws IOException {
+		Run.print(out, Integer.toString(val), width);
+	}
+
+	protected final void bprint(int val, int width) throws IOException {
+		Run.print(out, String.valueOf((char)val), width);
+	}
+
+	protected final RuntimeException trap(int n, int adr) {
+		return new Run.VMError("trap " + n + " at " + adr);
+	}
+}
@@ -0,0 +1,531 @@
+/* MicroJava to JVM Translator
+   ===========================
+Translates a MicroJava object file (see Code.write) ahead of time into a
+JVM class that extends JvmProgram, so that the program runs as JIT-compiled
+Java code instead of in the interpreter Run.
+
+Every MicroJava method (the code from one enter to the next) becomes a
+final instance method m<adr> with one int parameter per MicroJava
+parameter. The expression stack maps to the JVM operand stack and the
+locals to JVM locals 1..nLocals (0 is this); jumps become JVM branches
+within the method. A method returns an int if its code ends with a trap
+(the compiler appends "trap 1" to functions, see Parser.MethodBody) and
+is void otherwise. Heap access, I/O and traps call the helpers of
+JvmProgram, which check like Run does.
+
+The class file is written directly (version 49, so the JVM infers the
+types itself and no stack map frames are needed) and defined by a class
+loader of its own, which can be collected with the program.
+Translation fails with an IOException for code the compiler does not
+produce (e.g. inconsistent stack depths) or for methods too large for
+the JVM; such programs still run in Run.
+*/
+package MJ.CodeGen;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class JvmTranslator {
+	private static final int  // JVM instruction codes
+		iconst_m1     =   2,
+		iconst_0      =   3,
+		bipush        =  16,
+		sipush        =  17,
+		ldc_w         =  19,
+		iload_        =  21,
+		aload_0       =  42,
+		iaload        =  46,
+		istore_       =  54,
+		iastore       =  79,
+		pop           =  87,
+		dup_x2        =  91,
+		swap          =  95,
+		iadd          =  96,
+		isub          = 100,
+		imul          = 104,
+		idiv          = 108,
+		irem          = 112,
+		ineg          = 116,
+		ishl          = 120,
+		ishr          = 122,
+		if_icmpeq     = 159,
+		if_icmpne     = 160,
+		if_icmplt     = 161,
+		if_icmpge     = 162,
+		if_icmpgt     = 163,
+		if_icmple     = 164,
+		goto_         = 167,
+		ireturn       = 172,
+		return_       = 177,
+		getfield      = 180,
+		invokevirtual = 182,
+		invokespecial = 183,
+		athrow        = 191,
+		wide          = 196;
+	private static final String base = "MJ/CodeGen/JvmProgram";
+	private static int classes;		// number of translated classes (for unique names)
+
+	// Defines one translated class
+	private static class Loader extends ClassLoader {
+		Loader() { super(JvmTranslator.class.getClassLoader()); }
+		Class<?> define(String name, byte[] b) { return defineClass(name, b, 0, b.length); }
+	}
+
+	private final byte[] code;		// MicroJava code
+	private final int dataSize;
+	private final int mainPc;
+
+	// MicroJava methods, in address order
+	private int[] start;			// address of the enter instruction
+	private int[] end;				// address after the last instruction
+	private int[] nPars, nLocals;
+	private boolean[] function;		// returns a value
+	private int nMeths;
+
+	// constant pool
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream cp = new DataOutputStream(pool);
+	private final HashMap<String, Integer> entries = new HashMap<String, Integer>();
+	private int nEntries = 1;
+
+	// JVM code of the current method
+	private byte[] jc = new byte[1024];
+	private int jpc;
+	private int[] label;			// JVM address of each MicroJava address in the method
+	private int[] fixup = new int[64];	// pairs (JVM address of a branch, MicroJava target)
+	private int nFixups;
+
+	// Load an object file: "MJ", codeSize, dataSize, mainPc, code
+	public JvmTranslator(byte[] obj) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(obj));
+		if (in.readByte() != 'M' || in.readByte() != 'J') throw new IOException("not a MicroJava object file");
+		int codeSize = in.readInt();
+		dataSize = in.readInt();
+		mainPc = in.readInt();
+		if (codeSize < 0 || dataSize < 0 || mainPc < 0 || mainPc >= codeSize)
+			throw new IOException("corrupt object file header");
+		code = new byte[codeSize];
+		in.readFully(code);
+	}
+
+	public JvmTranslator(Path file) throws IOException {
+		this(Files.readAllBytes(file));
+	}
+
+	// Translate and load the program; every call of run on the result runs it anew
+	public JvmProgram load() throws IOException {
+		String name = "MJProgram" + nextClass();
+		try {
+			Class<?> c = new Loader().define(name, translate(name));
+			return (JvmProgram)c.getConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			throw new IOException("cannot load translated program: " + e, e);
+		}
+	}
+
+	private static synchronized int nextClass() {
+		return classes++;
+	}
+
+	//------------------ MicroJava code ---------------------
+
+	private int op(int adr) {
+		return code[adr];
+	}
+
+	private int get2(int adr) {
+		return (code[adr] & 0xff) << 8 | code[adr+1] & 0xff;
+	}
+
+	private int get4(int adr) {
+		return get2(adr) << 16 | get2(adr+2);
+	}
+
+	private int next(int adr) {
+		int op = op(adr);
+		if (op < Code.load || op > Code.trap) throw new Untranslatable("illegal instruction " + op + " at " + adr);
+		return adr + Code.size[op];
+	}
+
+	// Unchecked carrier of translation errors out of the code walks
+	private static class Untranslatable extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		Untranslatable(String msg) { super(msg, null, false, false); }
+	}
+
+	// Split the code into methods
+	private void findMethods() {
+		int n = 0;
+		for (int adr = 0; adr < code.length; adr = next(adr))
+			if (op(adr) == Code.enter) n++;
+		start = new int[n]; end = new int[n];
+		nPars = new int[n]; nLocals = new int[n];
+		function = new boolean[n];
+		for (int adr = 0; adr < code.length; adr = next(adr)) {
+			if (op(adr) == Code.enter) {
+				if (nMeths > 0) end[nMeths-1] = adr;
+				start[nMeths] = adr;
+				nPars[nMeths] = code[adr+1] & 0xff;
+				nLocals[nMeths] = code[adr+2] & 0xff;
+				nMeths++;
+			} else if (nMeths == 0) throw new Untranslatable("code outside of a method at " + adr);
+		}
+		if (nMeths == 0) throw new Untranslatable("no methods");
+		end[nMeths-1] = code.length;
+		for (int m = 0; m < nMeths; m++) {
+			int adr = start[m], prev = adr;
+			while (adr < end[m]) { prev = adr; adr = next(adr); }
+			function[m] = op(prev) == Code.trap;
+		}
+		if (methodAt(mainPc) < 0) throw new Untranslatable("mainPc is not a method");
+	}
+
+	// Index of the method that starts at adr, or -1
+	private int methodAt(int adr) {
+		int m = Arrays.binarySearch(start, 0, nMeths, adr);
+		return m >= 0 ? m : -1;
+	}
+
+	private int callee(int adr) {
+		int m = methodAt(get2(adr+1));
+		if (m < 0) throw new Untranslatable("call to a non-method at " + adr);
+		return m;
+	}
+
+	// Expression stack depth before each instruction of method m (-1: unreachable);
+	// the entry at end[m] holds the maximum depth
+	private int[] depths(int m) {
+		int from = start[m], to = end[m];
+		int[] depth = new int[to - from + 1];
+		Arrays.fill(depth, -1);
+		int[] work = new int[to - from];
+		int nWork = 0, max = 0;
+		depth[0] = 0;
+		work[nWork++] = from;
+		while (nWork > 0) {
+			int adr = work[--nWork], d = depth[adr - from];
+			for (;;) {
+				int op = op(adr), succ = next(adr), target = -1;
+				switch (op) {
+					case Code.load: case Code.load0: case Code.load1: case Code.load2: case Code.load3:
+					case Code.getstatic: case Code.new_: case Code.read: case Code.bread:
+						d++; break;
+					case Code.const0: case Code.const1: case Code.const2: case Code.const3:
+					case Code.const4: case Code.const5: case Code.const_m1: case Code.const_:
+						d++; break;
+					case Code.store: case Code.store0: case Code.store1: case Code.store2: case Code.store3:
+					case Code.putstatic: case Code.pop:
+					case Code.add: case Code.sub: case Code.mul: case Code.div: case Code.rem:
+					case Code.shl: case Code.shr: case Code.aload: case Code.baload:
+						d--; break;
+					case Code.putfield: case Code.print: case Code.bprint:
+						d -= 2; break;
+					case Code.astore: case Code.bastore:
+						d -= 3; break;
+					case Code.getfield: case Code.neg: case Code.newarray: case Code.arraylength:
+					case Code.exit:
+						break;
+					case Code.enter:
+						if (adr != from) throw new Untranslatable("enter inside a method at " + adr);
+						break;
+					case Code.jmp:
+						target = get2(adr+1); succ = -1; break;
+					case Code.jeq: case Code.jne: case Code.jlt: case Code.jle: case Code.jgt: case Code.jge:
+						d -= 2; target = get2(adr+1); break;
+					case Code.call: {
+						int c = callee(adr);
+						d -= nPars[c];
+						if (d < 0) break;
+						if (function[c]) d++;
+						break;
+					}
+					case Code.return_:
+						if (d != (function[m] ? 1 : 0))
+							throw new Untranslatable("return with stack depth " + d + " at " + adr);
+						succ = -1; break;
+					case Code.trap:
+						succ = -1; break;
+				}
+				if (d < 0) throw new Untranslatable("stack underflow at " + adr);
+				max = Math.max(max, d);
+				if (target >= 0) {
+					if (target < from || target >= to) throw new Untranslatable("jump out of the method at " + adr);
+					if (depth[target - from] < 0) {
+						depth[target - from] = d;
+						work[nWork++] = target;
+					} else if (depth[target - from] != d)
+						throw new Untranslatable("inconsistent stack depth at " + target);
+				}
+				if (succ < 0) break;
+				if (succ >= to) throw new Untranslatable("method falls through at " + adr);
+				if (depth[succ - from] >= 0) {
+					if (depth[succ - from] != d) throw new Untranslatable("inconsistent stack depth at " + succ);
+					break;
+				}
+				depth[succ - from] = d;
+				adr = succ;
+			}
+		}
+		depth[to - from] = max;
+		return depth;
+	}
+
+	//------------------ constant pool ---------------------
+
+	private int entry(String key, int tag, String s, int a, int b) {
+		Integer e = entries.get(key);
+		if (e != null) return e;
+		try {
+			cp.writeByte(tag);
+			if (s != null) cp.writeUTF(s);
+			else if (tag == 3) cp.writeInt(a);
+			else {
+				cp.writeShort(a);
+				if (b >= 0) cp.writeShort(b);
+			}
+		} catch (IOException x) {}
+		entries.put(key, nEntries);
+		return nEntries++;
+	}
+
+	private int utf8(String s)     { return entry("U" + s, 1, s, 0, -1); }
+	private int integer(int val)   { return entry("I" + val, 3, null, val, -1); }
+	private int cls(String name)   { return entry("C" + name, 7, null, utf8(name), -1); }
+	private int nameAndType(String name, String desc) {
+		return entry("N" + name + " " + desc, 12, null, utf8(name), utf8(desc));
+	}
+	private int fieldRef(String cls, String name, String desc) {
+		return entry("F" + cls + "." + name + " " + desc, 9, null, cls(cls), nameAndType(name, desc));
+	}
+	private int methodRef(String cls, String name, String desc) {
+		return entry("M" + cls + "." + name + " " + desc, 10, null, cls(cls), nameAndType(name, desc));
+	}
+
+	//------------------ JVM code ---------------------
+
+	private void put(int x) {
+		if (jpc == jc.length) jc = Arrays.copyOf(jc, 2 * jc.length);
+		jc[jpc++] = (byte)x;
+	}
+
+	private void put2(int x) {
+		put(x >> 8); put(x);
+	}
+
+	private void loadInt(int val) {
+		if (val >= -1 && val <= 5) put(iconst_0 + val);
+		else if (val >= -128 && val <= 127) { put(bipush); put(val); }
+		else if (val >= -32768 && val <= 32767) { put(sipush); put2(val); }
+		else { put(ldc_w); put2(integer(val)); }
+	}
+
+	private void local(int op, int n) {
+		if (n <= 3) put(op + 5 + n);	// iload_0, istore_0
+		else if (n <= 255) { put(op); put(n); }
+		else { put(wide); put(op); put2(n); }
+	}
+
+	private void iload(int n)  { local(iload_, n); }
+	private void istore(int n) { local(istore_, n); }
+
+	// Call a helper of JvmProgram; args are the top stack words, this is put below them
+	private void helper(String name, String desc, int args) {
+		if (args == 1) { put(aload_0); put(swap); }
+		else if (args == 2) { put(aload_0); put(dup_x2); put(pop); }
+		else if (args > 0) throw new IllegalArgumentException();
+		else put(aload_0);
+		put(invokevirtual); put2(methodRef(base, name, desc));
+	}
+
+	private void branch(int op, int target) {
+		if (nFixups == fixup.length / 2) fixup = Arrays.copyOf(fixup, 2 * fixup.length);
+		fixup[2*nFixups] = jpc; fixup[2*nFixups+1] = target;
+		nFixups++;
+		put(op); put2(0);
+	}
+
+	private static String descriptor(int nPars, boolean function) {
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < nPars; i++) sb.append('I');
+		return sb.append(function ? ")I" : ")V").toString();
+	}
+
+	// Translate method m into jc[0..jpc); returns max stack and max locals
+	private int[] translate(int m) {
+		int from = start[m], to = end[m];
+		int[] depth = depths(m);
+		int scratch = 1 + nLocals[m], nScratch = 3;
+		jpc = 0; nFixups = 0;
+		label = new int[to - from];
+		for (int adr = from; adr < to; adr = next(adr)) {
+			label[adr - from] = jpc;
+			if (depth[adr - from] < 0) continue;	// unreachable
+			int op = op(adr);
+			switch (op) {
+				case Code.load:  iload(1 + (code[adr+1] & 0xff)); break;
+				case Code.load0: case Code.load1: case Code.load2: case Code.load3:
+					iload(1 + op - Code.load0); break;
+				case Code.store: istore(1 + (code[adr+1] & 0xff)); break;
+				case Code.store0: case Code.store1: case Code.store2: case Code.store3:
+					istore(1 + op - Code.store0); break;
+				case Code.getstatic:
+					put(aload_0); put(getfield); put2(fieldRef(base, "data", "[I"));
+					loadInt(get2(adr+1)); put(iaload);
+					break;
+				case Code.putstatic:
+					put(aload_0); put(getfield); put2(fieldRef(base, "data", "[I"));
+					put(swap); loadInt(get2(adr+1)); put(swap); put(iastore);
+					break;
+				case Code.getfield:
+					put(aload_0); put(swap); loadInt(get2(adr+1));
+					put(invokevirtual); put2(methodRef(base, "getfield", "(II)I"));
+					break;
+				case Code.putfield:
+					put(aload_0); put(dup_x2); put(pop); loadInt(get2(adr+1));
+					put(invokevirtual); put2(methodRef(base, "putfield", "(III)V"));
+					break;
+				case Code.const0: case Code.const1: case Code.const2: case Code.const3:
+				case Code.const4: case Code.const5:
+					loadInt(op - Code.const0); break;
+				case Code.const_m1: loadInt(-1); break;
+				case Code.const_: loadInt(get4(adr+1)); break;
+				case Code.add: put(iadd); break;
+				case Code.sub: put(isub); break;
+				case Code.mul: put(imul); break;
+				case Code.div: put(idiv); break;	// ArithmeticException: see JvmProgram.run
+				case Code.rem: put(irem); break;
+				case Code.neg: put(ineg); break;
+				case Code.shl: put(ishl); break;
+				case Code.shr: put(ishr); break;
+				case Code.new_:
+					put(aload_0); loadInt(get2(adr+1));
+					put(invokevirtual); put2(methodRef(base, "newObj", "(I)I"));
+					break;
+				case Code.newarray: helper("newArray", "(I)I", 1); break;
+				case Code.aload: case Code.baload: helper("aload", "(II)I", 2); break;
+				case Code.astore: case Code.bastore:
+					istore(scratch + 2); istore(scratch + 1); istore(scratch);
+					put(aload_0); iload(scratch); iload(scratch + 1); iload(scratch + 2);
+					put(invokevirtual);
+					put2(methodRef(base, op == Code.astore ? "astore" : "bastore", "(III)V"));
+					break;
+				case Code.arraylength: helper("arraylength", "(I)I", 1); break;
+				case Code.pop: put(pop); break;
+				case Code.jmp: branch(goto_, get2(adr+1)); break;
+				case Code.jeq: branch(if_icmpeq, get2(adr+1)); break;
+				case Code.jne: branch(if_icmpne, get2(adr+1)); break;
+				case Code.jlt: branch(if_icmplt, get2(adr+1)); break;
+				case Code.jle: branch(if_icmple, get2(adr+1)); break;
+				case Code.jgt: branch(if_icmpgt, get2(adr+1)); break;
+				case Code.jge: branch(if_icmpge, get2(adr+1)); break;
+				case Code.call: {
+					int c = callee(adr), n = nPars[c];
+					nScratch = Math.max(nScratch, n);
+					for (int i = n - 1; i >= 0; i--) istore(scratch + i);
+					put(aload_0);
+					for (int i = 0; i < n; i++) iload(scratch + i);
+					put(invokevirtual); put2(methodRef(className, "m" + start[c], descriptor(n, function[c])));
+					break;
+				}
+				case Code.return_: put(function[m] ? ireturn : return_); break;
+				case Code.enter:		// parameters are in locals 1..nPars; clear the others
+					for (int i = nPars[m]; i < nLocals[m]; i++) { put(iconst_0); istore(1 + i); }
+					break;
+				case Code.exit: break;
+				case Code.read:  helper("read", "()I", 0); break;
+				case Code.bread: helper("bread", "()I", 0); break;
+				case Code.print:  helper("print", "(II)V", 2); break;
+				case Code.bprint: helper("bprint", "(II)V", 2); break;
+				case Code.trap:
+					put(aload_0); loadInt(code[adr+1] & 0xff); loadInt(adr);
+					put(invokevirtual); put2(methodRef(base, "trap", "(II)Ljava/lang/RuntimeException;"));
+					put(athrow);
+					break;
+			}
+		}
+		for (int i = 0; i < nFixups; i++) {
+			int at = fixup[2*i], dist = label[fixup[2*i+1] - from] - at;
+			if (dist < -32768 || dist > 32767) throw new Untranslatable("method at " + from + " too large for the JVM");
+			jc[at+1] = (byte)(dist >> 8); jc[at+2] = (byte)dist;
+		}
+		if (jpc > 65535) throw new Untranslatable("method at " + from + " too large for the JVM");
+		return new int[] {depth[to - from] + 4, scratch + nScratch};
+	}
+
+	//------------------ class file ---------------------
+
+	private String className;
+
+	// The class file of the translated program
+	public byte[] translate(String name) throws IOException {
+		className = name;
+		try {
+			findMethods();
+			ByteArrayOutputStream methods = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(methods);
+			// constructor: super(dataSize)
+			jpc = 0;
+			put(aload_0); loadInt(dataSize);
+			put(invokespecial); put2(methodRef(base, "<init>", "(I)V"));
+			put(return_);
+			writeMethod(out, 0x0001, "<init>", "()V", 3, 1);
+			// main: call the main method of the program
+			jpc = 0;
+			put(aload_0); put(invokevirtual); put2(methodRef(name, "m" + mainPc, descriptor(0, function[methodAt(mainPc)])));
+			if (function[methodAt(mainPc)]) put(pop);
+			put(return_);
+			writeMethod(out, 0x0004, "main", "()V", 2, 1);
+			for (int m = 0; m < nMeths; m++) {
+				int[] limits = translate(m);
+				writeMethod(out, 0x0011, "m" + start[m], descriptor(nPars[m], function[m]), limits[0], limits[1]);
+			}
+			int thisClass = cls(name), superClass = cls(base);
+			ByteArrayOutputStream file = new ByteArrayOutputStream(pool.size() + methods.size() + 32);
+			DataOutputStream f = new DataOutputStream(file);
+			f.writeInt(0xCAFEBABE);
+			f.writeShort(0); f.writeShort(49);		// version 49: no stack map frames
+			if (nEntries > 65535) throw new Untranslatable("too many constants");
+			f.writeShort(nEntries);
+			pool.writeTo(f);
+			f.writeShort(0x0031);	// public final super
+			f.writeShort(thisClass); f.writeShort(superClass);
+			f.writeShort(0);		// interfaces
+			f.writeShort(0);		// fields
+			f.writeShort(nMeths + 2);
+			methods.writeTo(f);
+			f.writeShort(0);		// attributes
+			return file.toByteArray();
+		} catch (Untranslatable e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	private void writeMethod(DataOutputStream out, int access, String name, String desc,
+			int maxStack, int maxLocals) throws IOException {
+		int codeAttr = utf8("Code");
+		out.writeShort(access);
+		out.writeShort(utf8(name)); out.writeShort(utf8(desc));
+		out.writeShort(1);		// attributes
+		out.writeShort(codeAttr);
+		out.writeInt(12 + jpc);
+		out.writeShort(maxStack); out.writeShort(maxLocals);
+		out.writeInt(jpc);
+		out.write(jc, 0, jpc);
+		out.writeShort(0);		// exception table
+		out.writeShort(0);		// attributes
+	}
+
+	public static void main(String args[]) {
+		if (args.length > 0) {
+			try {
+				byte[] cls = new JvmTranslator(Paths.get(args[0])).translate("MJProgram");
+				String out = args.length > 1 ? args[1] : "MJProgram.class";
+				Files.write(Paths.get(out), cls);
+				System.out.println("-- " + out + ": " + cls.length + " bytes");
+			} catch (IOException e) {
+				System.out.println("-- cannot translate " + args[0] + ": " + e.getMessage());
+			}
+		} else System.out.println("-- synopsis: java MJ.CodeGen.JvmTranslator <objFileName> [<classFileName>]");
+	}
+}
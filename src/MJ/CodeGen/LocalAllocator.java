@@ -0,0 +1,118 @@
+/* MicroJava Local Variable Allocator
+   ==================================
+Reassigns the frame slots of local variables (an IR pass, see Parser.ir).
+Only slots 0..3 have one-byte load and store instructions, and the
+declaration order decides which locals get them. So for every method:
+  - each load and store of a local counts 8^d, d = the loop depth of its
+    block (see IR.loopDepth);
+  - the live ranges of the locals are computed over the control flow
+    graph; two locals interfere if one is stored while the other is live;
+  - the locals are given slots in the order of their counts, each the
+    lowest slot not held by an interfering local.
+So the hottest locals get the short forms, and locals whose live ranges
+do not overlap share a slot, which makes the frame (enter) smaller.
+Locals that are never used get no slot at all.
+
+Parameters keep their slots, since enter copies the arguments there.
+A local that may be read before it is written relies on enter clearing
+its slot, so it does not share a slot with any parameter.
+*/
+package MJ.CodeGen;
+
+import java.util.*;
+
+public class LocalAllocator {
+	public int savedSlots;	// frame words saved by the last allocate
+	public int moved;		// locals that got another slot
+
+	private IR ir;
+	private int[] depth;	// loop depth of each block
+
+	// Allocate the locals of every method of ir
+	public void allocate(IR ir) {
+		this.ir = ir;
+		savedSlots = 0; moved = 0;
+		depth = ir.loopDepth();
+		for (int m = 0; m < ir.nMeths; m++) allocate(m);
+	}
+
+	private static long weight(int depth) {
+		return 1L << 3 * Math.min(depth, 20);
+	}
+
+	private void allocate(int m) {
+		if (ir.entry[m] == IR.none) return;
+		int enter = ir.first[ir.entry[m]];
+		if (enter == IR.none || ir.op[enter] != Code.enter) return;
+		int nPars = ir.arg[enter] >> 8, nLocals = ir.arg[enter] & 0xff;
+		if (nLocals == 0) return;
+
+		// blocks of m and the weighted use counts of the locals
+		int n = 0;
+		for (int b = ir.entry[m]; b != IR.none; b = ir.nextBlock[b]) n++;
+		int[] blocks = new int[n];
+		n = 0;
+		long[] count = new long[nLocals];
+		for (int b = ir.entry[m]; b != IR.none; b = ir.nextBlock[b]) {
+			blocks[n++] = b;
+			for (int i = ir.first[b]; i != IR.none; i = ir.next[i])
+				if (ir.op[i] == Code.load || ir.op[i] == Code.store) count[ir.arg[i]] += weight(depth[b]);
+		}
+		BitSet[][] inOut = ir.liveness(m);	// live locals at the start and end of each block
+
+		// interference
+		BitSet[] conflict = new BitSet[nLocals];
+		for (int x = 0; x < nLocals; x++) conflict[x] = new BitSet(nLocals);
+		int[] instrs = new int[16];
+		for (int k = 0; k < n; k++) {
+			int b = blocks[k], len = 0;
+			for (int i = ir.first[b]; i != IR.none; i = ir.next[i]) {
+				if (len == instrs.length) instrs = Arrays.copyOf(instrs, 2 * len);
+				instrs[len++] = i;
+			}
+			BitSet live = (BitSet)inOut[1][b].clone();
+			for (int j = len - 1; j >= 0; j--) {
+				int i = instrs[j], x = ir.arg[i];
+				if (ir.op[i] == Code.store) {
+					for (int v = live.nextSetBit(0); v >= 0; v = live.nextSetBit(v + 1))
+						if (v != x) { conflict[x].set(v); conflict[v].set(x); }
+					live.clear(x);
+				} else if (ir.op[i] == Code.load) live.set(x);
+			}
+		}
+		// the parameters are written by enter, and the other locals that are
+		// live there need their cleared slots
+		BitSet entryLive = inOut[0][ir.entry[m]];
+		for (int p = 0; p < nPars; p++) {
+			for (int v = 0; v < nLocals; v++) {
+				if (v != p && (v < nPars || entryLive.get(v))) { conflict[p].set(v); conflict[v].set(p); }
+			}
+		}
+
+		// slots: parameters stay, the other locals by decreasing count
+		int[] slot = new int[nLocals];
+		Arrays.fill(slot, -1);
+		for (int p = 0; p < nPars; p++) slot[p] = p;
+		Integer[] order = new Integer[nLocals - nPars];
+		for (int x = nPars; x < nLocals; x++) order[x - nPars] = x;
+		Arrays.sort(order, (a, b) -> count[a] != count[b] ? Long.compare(count[b], count[a]) : a - b);
+		int size = nPars;
+		BitSet taken = new BitSet(nLocals);
+		for (int x: order) {
+			if (count[x] == 0) continue;	// never used
+			taken.clear();
+			for (int v = conflict[x].nextSetBit(0); v >= 0; v = conflict[x].nextSetBit(v + 1))
+				if (slot[v] >= 0) taken.set(slot[v]);
+			slot[x] = taken.nextClearBit(0);
+			size = Math.max(size, slot[x] + 1);
+			if (slot[x] != x) moved++;
+		}
+
+		// rewrite
+		for (int k = 0; k < n; k++)
+			for (int i = ir.first[blocks[k]]; i != IR.none; i = ir.next[i])
+				if (ir.op[i] == Code.load || ir.op[i] == Code.store) ir.arg[i] = slot[ir.arg[i]];
+		ir.arg[enter] = nPars << 8 | size;
+		savedSlots += nLocals - size;
+	}
+}
@@ -0,0 +1,147 @@
+/* MicroJava Loop Invariant Hoisting
+   =================================
+Moves loop-invariant loads out of loops (an IR pass, see Parser.ir).
+An invariant is a chain of instructions in the loop header of the form
+  (load v | getstatic s) {getfield f} [arraylength]
+with at least two instructions, e.g. len(a), o.f or o.f.g, where inside
+the loop
+  - v is not stored, s not put and no field at offset f is put,
+  - if the chain has a getstatic or a getfield, no method is called
+    (the callee might change them).
+The chain is evaluated once into a new local in a preheader block, which
+runs right before the loop is entered, and the header loads that local.
+
+The header runs first in every iteration, so moving a chain from it to
+the preheader only changes when it is evaluated. This holds only up to the
+first instruction of the header that may trap or have an effect (a call,
+a store into the heap, I/O, a division, ...). So chains after such an
+instruction stay in the loop, and a null reference still traps at
+the same point.
+*/
+package MJ.CodeGen;
+
+import java.util.*;
+
+public class LoopInvariants {
+	public int hoisted;		// chains moved out of loops by the last optimize
+
+	private IR ir;
+	private int[] nOrig;	// number of locals of each method before this pass
+
+	public void optimize(IR ir) {
+		this.ir = ir;
+		hoisted = 0;
+		nOrig = new int[ir.nMeths];
+		for (int m = 0; m < ir.nMeths; m++) {
+			int e = enter(m);
+			if (e != IR.none) nOrig[m] = ir.arg[e] & 0xff;
+		}
+		for (int[] loop: ir.loops()) hoist(loop);
+	}
+
+	private int enter(int m) {
+		if (ir.entry[m] == IR.none) return IR.none;
+		int i = ir.first[ir.entry[m]];
+		return i != IR.none && ir.op[i] == Code.enter ? i : IR.none;
+	}
+
+	// may trap or have an effect (other than on locals)
+	private static boolean unsafe(int op) {
+		switch (op) {
+			case IR.nop: case Code.load: case Code.store: case Code.getstatic: case Code.const_:
+			case Code.add: case Code.sub: case Code.mul: case Code.neg: case Code.shl: case Code.shr:
+			case Code.pop: case Code.exit:
+				return false;
+			default:
+				return true;
+		}
+	}
+
+	private void hoist(int[] loop) {
+		int h = loop[0], m = ir.meth[h], enter = enter(m);
+		if (enter == IR.none) return;
+
+		// what the loop changes
+		BitSet stored = new BitSet(), put = new BitSet(), putFields = new BitSet();
+		boolean calls = false;
+		for (int b: loop)
+			for (int i = ir.first[b]; i != IR.none; i = ir.next[i]) {
+				switch (ir.op[i]) {
+					case Code.store:     stored.set(ir.arg[i]); break;
+					case Code.putstatic: put.set(ir.arg[i]); break;
+					case Code.putfield:  putFields.set(ir.arg[i]); break;
+					case Code.call:      calls = true; break;
+				}
+			}
+
+		// invariant chains of the header up to the first unsafe instruction
+		int pre = IR.none;
+		List<String> chains = new ArrayList<String>();
+		List<Integer> temps = new ArrayList<Integer>();
+		for (int i = ir.first[h]; i != IR.none; ) {
+			int op = ir.op[i], x = ir.arg[i];
+			boolean start = op == Code.load && x < nOrig[m] && !stored.get(x)
+				|| op == Code.getstatic && !put.get(x) && !calls;
+			if (!start) {
+				if (unsafe(op)) break;
+				i = ir.next[i];
+				continue;
+			}
+			StringBuilder key = new StringBuilder().append(op).append(' ').append(x);
+			int n = 1, j = ir.next[i];
+			while (j != IR.none && ir.op[j] == Code.getfield && !putFields.get(ir.arg[j]) && !calls) {
+				key.append(" f").append(ir.arg[j]);
+				n++; j = ir.next[j];
+			}
+			if (j != IR.none && ir.op[j] == Code.arraylength) {
+				key.append(" len");
+				n++; j = ir.next[j];
+			}
+			if (n < 2) {
+				i = ir.next[i];
+				continue;
+			}
+			int k = chains.indexOf(key.toString()), t;
+			if (k >= 0) t = temps.get(k);
+			else {
+				int nLocals = ir.arg[enter] & 0xff;
+				if (nLocals == 255) break;		// no slot left
+				if (pre == IR.none) pre = preheader(loop);
+				if (pre == IR.none) break;
+				t = nLocals;
+				ir.arg[enter]++;
+				for (int c = i; c != j; c = ir.next[c]) ir.append(pre, ir.newInstr(ir.op[c], ir.arg[c]));
+				ir.append(pre, ir.newInstr(Code.store, t));
+				chains.add(key.toString());
+				temps.add(t);
+				hoisted++;
+			}
+			ir.op[i] = Code.load; ir.arg[i] = t;
+			for (int c = ir.next[i]; c != j; c = ir.next[c]) ir.op[c] = IR.nop;
+			i = j;
+		}
+	}
+
+	// New block that all edges from outside the loop into its header go
+	// through; none if the header has no such edge
+	private int preheader(int[] loop) {
+		int h = loop[0];
+		boolean[] inLoop = new boolean[ir.nBlocks];
+		for (int b: loop) inLoop[b] = true;
+		int pre = IR.none, n = ir.nBlocks;
+		for (int b = 0; b < n; b++) {
+			if (inLoop[b] || ir.meth[b] != ir.meth[h]) continue;
+			boolean falls = ir.fall[b] == h, jumps = ir.target(b) == h;
+			if (!falls && !jumps) continue;
+			if (pre == IR.none) {
+				pre = ir.newBlock(ir.meth[h]);
+				ir.fall[pre] = h;
+				ir.nextBlock[pre] = ir.nextBlock[b];	// laid out after the first outside predecessor
+				ir.nextBlock[b] = pre;
+			}
+			if (falls) ir.fall[b] = pre;
+			if (jumps) ir.arg[ir.last[b]] = pre;
+		}
+		return pre;
+	}
+}
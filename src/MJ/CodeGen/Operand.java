@@ -24,7 +24,7 @@ public class Operand {
 	public int    val;  // Con: value
 	public int    adr;  // Local, Static, Fld, Meth: address
 
-	public Operand(Obj o) {
+	public Operand(Obj o, Parser parser) {
 		type = o.type; val = o.val; adr = o.adr; kind = Stack; // default
 		switch (o.kind) {
 			case Obj.Con:
@@ -35,9 +35,9 @@ public class Operand {
 			case Obj.Meth:
 				kind = Meth; obj = o; break;
 			case Obj.Type:
-				Parser.error("type identifier not allowed here"); break;
+				parser.error("type identifier not allowed here"); break;
 			default:
-				Parser.error("wrong kind of identifier"); break;
+				parser.error("wrong kind of identifier"); break;
 		}
 	}
 
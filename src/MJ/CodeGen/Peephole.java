@@ -0,0 +1,155 @@
+/* MicroJava Peephole Optimizer
+   ============================
+Rewrites short instruction sequences in the finished code buffer:
+  const x; neg        ->  const -x
+  load n; store n     ->  (nothing)
+  const0; add|sub     ->  (nothing)
+  jmp/jcc L, L: jmp M ->  jmp/jcc M
+  jmp L, L: next      ->  (nothing)
+A sequence is only rewritten if no jump lands inside it. Afterwards all
+jump and call targets and mainPc are moved to the new addresses.
+*/
+package MJ.CodeGen;
+
+import java.util.Arrays;
+
+public class Peephole {
+	private static final int[] size = Code.size;	// instruction size by opcode
+
+	public int savedBytes;	// code size saved by the last optimize
+	public int rewrites;	// number of rewritten sequences
+
+	private byte[] buf;		// code being optimized
+	private int len;		// its length
+	private boolean[] target;	// target[adr]: some jump or call lands at adr
+	private byte[] out;		// optimized code
+	private int pc;			// next free byte in out
+	private int[] newAdr;	// new address of each old address
+
+	private int op(int adr) {
+		return buf[adr];
+	}
+
+	private int get2(int adr) {
+		return (buf[adr] & 0xff) << 8 | buf[adr+1] & 0xff;
+	}
+
+	private static boolean isJump(int op) {
+		return op >= Code.jmp && op <= Code.call;
+	}
+
+	// value of a constant instruction
+	private int constVal(int adr) {
+		int op = op(adr);
+		if (op == Code.const_) return get2(adr+1) << 16 | get2(adr+3);
+		if (op == Code.const_m1) return -1;
+		return op - Code.const0;
+	}
+
+	private static boolean isConst(int op) {
+		return op >= Code.const0 && op <= Code.const_;
+	}
+
+	// local variable slot of a load or store, or -1
+	private int slot(int adr, int shortBase, int longOp) {
+		int op = op(adr);
+		if (op >= shortBase && op <= shortBase + 3) return op - shortBase;
+		if (op == longOp) return buf[adr+1] & 0xff;
+		return -1;
+	}
+
+	private void put(int x) {
+		out[pc++] = (byte)x;
+	}
+
+	private void putConst(int val) {
+		if (0 <= val && val <= 5) put(Code.const0 + val);
+		else if (val == -1) put(Code.const_m1);
+		else {
+			put(Code.const_); put(val >> 24); put(val >> 16); put(val >> 8); put(val);
+		}
+	}
+
+	// follow chains of unconditional jumps
+	private int finalTarget(int adr) {
+		for (int n = 0; n < 16 && adr < len && op(adr) == Code.jmp; n++) adr = get2(adr+1);
+		return adr;
+	}
+
+	// One pass over the code; returns true if anything changed
+	private boolean pass(int[] mainPc) {
+		target = new boolean[len + 1];
+		target[mainPc[0]] = true;
+		for (int adr = 0; adr < len; adr += size[op(adr)])
+			if (isJump(op(adr))) target[get2(adr+1)] = true;
+
+		out = new byte[len];
+		pc = 0;
+		newAdr = new int[len + 1];
+		boolean changed = false;
+		int adr = 0;
+		while (adr < len) {
+			int op = op(adr), next = adr + size[op];
+			newAdr[adr] = pc;
+			if (next < len && !target[next]) {
+				int op2 = op(next), after = next + size[op2];
+				if (isConst(op) && op2 == Code.neg) {
+					putConst(-constVal(adr));
+					newAdr[next] = pc;
+					adr = after; rewrites++; changed = true;
+					continue;
+				}
+				int s = slot(adr, Code.load0, Code.load);
+				if (s >= 0 && s == slot(next, Code.store0, Code.store)) {
+					newAdr[next] = pc;
+					adr = after; rewrites++; changed = true;
+					continue;
+				}
+				if (op == Code.const0 && (op2 == Code.add || op2 == Code.sub)) {
+					newAdr[next] = pc;
+					adr = after; rewrites++; changed = true;
+					continue;
+				}
+			}
+			if (op == Code.jmp && get2(adr+1) == next) {
+				adr = next; rewrites++; changed = true;
+				continue;
+			}
+			for (int i = adr; i < next; i++) out[pc++] = buf[i];
+			if (isJump(op) && op != Code.call) {
+				int t = finalTarget(get2(adr+1));
+				if (t != get2(adr+1)) {
+					out[pc-2] = (byte)(t >> 8); out[pc-1] = (byte)t;
+					rewrites++; changed = true;
+				}
+			}
+			adr = next;
+		}
+		newAdr[len] = pc;
+
+		// move jump and call targets and mainPc to the new addresses
+		for (int a = 0; a < pc; a += size[out[a]]) {
+			if (isJump(out[a])) {
+				int t = newAdr[(out[a+1] & 0xff) << 8 | out[a+2] & 0xff];
+				out[a+1] = (byte)(t >> 8); out[a+2] = (byte)t;
+			}
+		}
+		mainPc[0] = newAdr[mainPc[0]];
+		buf = out; len = pc;
+		return changed;
+	}
+
+	// Optimize the code buffer of code in place
+	public void optimize(Code code) {
+		buf = code.buf; len = code.pc;
+		int[] mainPc = {code.mainPc};
+		int oldLen = len;
+		rewrites = 0;
+		if (mainPc[0] < 0 || len == 0) return;
+		for (int round = 0; round < 8 && pass(mainPc); round++) ;
+		code.buf = Arrays.copyOf(buf, Math.max(len, 16));
+		code.pc = len;
+		code.mainPc = mainPc[0];
+		savedBytes = oldLen - len;
+	}
+}
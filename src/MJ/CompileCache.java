@@ -0,0 +1,235 @@
+/* MicroJava Compilation Cache
+   ===========================
+An on-disk cache of compilation results, keyed by a SHA-256 hash of the
+compiler version, the options and the source bytes. The compiler version
+is a hash of the compiler's jar or class files, so any rebuilt compiler
+misses the entries of the previous one. An entry holds the diagnostics
+and the object file as written by Code.write; on a hit the diagnostics
+are replayed to the caller's sink.
+
+Entries are written to a temporary file and atomically renamed into
+place, so concurrent compiler processes never see partial entries. When
+the cache grows beyond its size limit the least recently used entries
+are deleted. The sizes and the use order of the entries are kept in
+memory, seeded by one scan of the directory (oldest modification time
+first) when the cache is opened; hits also refresh the modification time
+for the next process. Entries that other processes add meanwhile join
+the index when they are hit.
+The cache is best effort: if it cannot be read or written the source is
+simply compiled.
+*/
+package MJ;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.*;
+import MJ.CodeGen.Decoder;
+import MJ.CodeGen.Inliner;
+
+public class CompileCache {
+	public static final String compilerVersion = buildStamp();
+	public static final long defaultMaxBytes = 64L << 20;
+	private static final int headerSize = 14;	// of an object file, see Code.write
+	private static final int magic = 0x4D4A4343;	// "MJCC"
+	private static final int entryHeader = 16;	// magic, errors, object file length, number of diagnostics
+	private static final int diagBytes = 14;	// least size of a diagnostic: code, line, col, message length
+
+	// A cached compilation result
+	public static class Entry {
+		public int    errors;
+		public Diagnostics diag;
+		public byte[] obj;		// object file, null if there were errors
+		public boolean cached;	// taken from the cache without parsing
+
+		// List the code of obj as Code.list does
+		public void list(Appendable out) throws IOException {
+			byte[] code = Arrays.copyOfRange(obj, headerSize, obj.length);
+			Decoder.decode(code, 0, code.length, out);
+		}
+	}
+
+	private final Path dir;
+	public boolean ir;		// compile options, see Parser.ir and Parser.inline
+	public int inline = Inliner.defaultSize;
+	private final long maxBytes;
+	private final LinkedHashMap<Path, Long> sizes = new LinkedHashMap<Path, Long>(16, 0.75f, true);	// entry sizes, least recently used first
+	private long total;		// sum of sizes
+
+	public CompileCache(Path dir, long maxBytes) throws IOException {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		Files.createDirectories(dir);
+		List<Object[]> info = new ArrayList<Object[]>();	// {path, size, time}
+		try (Stream<Path> s = Files.list(dir)) {
+			for (Path f: (Iterable<Path>)s::iterator) {
+				if (!f.toString().endsWith(".entry")) continue;
+				try {
+					info.add(new Object[] {f, Files.size(f), Files.getLastModifiedTime(f).toMillis()});
+				} catch (IOException x) {} // deleted by another process
+			}
+		}
+		info.sort((a, b) -> Long.compare((Long)a[2], (Long)b[2]));
+		for (Object[] i: info) {
+			sizes.put((Path)i[0], (Long)i[1]);
+			total += (Long)i[1];
+		}
+	}
+
+	// SHA-256 of the jar or the class files (in name order) this class was loaded from
+	private static String buildStamp() {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			Path root = Paths.get(CompileCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			List<Path> files;
+			if (Files.isDirectory(root)) {
+				try (Stream<Path> s = Files.walk(root.resolve("MJ"))) {
+					files = s.filter(f -> f.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+				}
+			} else files = Arrays.asList(root);
+			for (Path f: files) md.update(Files.readAllBytes(f));
+			return hex(md.digest());
+		} catch (Exception e) {	// no readable code source: never share entries with other processes
+			return "unknown-" + Long.toHexString(System.nanoTime());
+		}
+	}
+
+	private static String hex(byte[] h) {
+		StringBuilder sb = new StringBuilder(2 * h.length);
+		for (byte b: h) sb.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+		return sb.toString();
+	}
+
+	// Cache key of a source; options are the compiler options that influence the result
+	public static String key(byte[] source, String options) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update((compilerVersion + "|" + options + "|").getBytes("UTF-8"));
+			return hex(md.digest(source));
+		} catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Path file(String key) {
+		return dir.resolve(key + ".entry");
+	}
+
+	// Cached result for key, or null; its diagnostics are replayed to sink.
+	// Counts that do not fit into the file make the entry corrupt, which is a miss.
+	public Entry get(String key, Diagnostics.Sink sink) {
+		Path f = file(key);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(f)))) {
+			long size = Files.size(f);
+			if (in.readInt() != magic) return null;
+			Entry e = new Entry();
+			e.errors = in.readInt();
+			int len = in.readInt();
+			if (len < -1 || len > size - entryHeader) return null;
+			if (len >= 0) {
+				e.obj = new byte[len];
+				in.readFully(e.obj);
+			}
+			e.diag = new Diagnostics(Diagnostics.none);
+			int n = in.readInt();
+			if (n < 0 || n > size / diagBytes) return null;
+			for (int i = 0; i < n; i++) {
+				int code = in.readInt();
+				if (code < Diagnostics.lexical || code > Diagnostics.io) return null;
+				e.diag.report(code, in.readInt(), in.readInt(), in.readUTF());
+			}
+			if (in.read() >= 0) return null;	// more than was written
+			e.diag.sink = sink;
+			e.diag.replay(sink);
+			synchronized (this) {
+				if (sizes.get(f) == null) {	// added by another process
+					sizes.put(f, size);
+					total += size;
+				}
+			}
+			try {
+				Files.setLastModifiedTime(f, FileTime.fromMillis(System.currentTimeMillis()));
+			} catch (IOException x) {} // entry evicted meanwhile; the result is still valid
+			return e;
+		} catch (IOException x) {
+			return null;	// missing, evicted or unreadable: a miss
+		}
+	}
+
+	// Store a result under key
+	public void put(String key, Entry e) throws IOException {
+		Path tmp = Files.createTempFile(dir, key, ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(magic);
+				out.writeInt(e.errors);
+				if (e.obj == null) out.writeInt(-1);
+				else {
+					out.writeInt(e.obj.length);
+					out.write(e.obj);
+				}
+				Diagnostics d = e.diag;
+				out.writeInt(d.size());
+				for (int i = 0; i < d.size(); i++) {
+					out.writeInt(d.code(i)); out.writeInt(d.line(i)); out.writeInt(d.col(i));
+					out.writeUTF(d.message(i));
+				}
+			}
+			Files.move(tmp, file(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		long size = Files.size(file(key));
+		synchronized (this) {
+			Long old = sizes.put(file(key), size);
+			total += size - (old != null ? old : 0);
+			evict();
+		}
+	}
+
+	// Compile source (UTF-8) or take the result from the cache;
+	// the diagnostics go to sink in both cases
+	public Entry compile(byte[] source, Diagnostics.Sink sink, int maxErrors) {
+		String key = key(source, "optimize maxErrors=" + maxErrors + (ir ? " ir inline=" + inline : ""));
+		Entry e = get(key, sink);
+		if (e != null) {
+			e.cached = true;
+			return e;
+		}
+		char[] src = new String(source, StandardCharsets.UTF_8).toCharArray();
+		e = new Entry();
+		e.diag = new Diagnostics(sink, maxErrors);
+		Parser parser = new Parser(new Scanner(src, src.length), e.diag);
+		parser.ir = ir;
+		parser.inline = inline;
+		parser.parse();
+		e.errors = parser.errors;
+		if (e.errors == 0) {
+			ByteArrayOutputStream obj = new ByteArrayOutputStream();
+			parser.code.write(obj);
+			e.obj = obj.toByteArray();
+		}
+		try {
+			put(key, e);
+		} catch (IOException x) {} // not cached; the result is still valid
+		return e;
+	}
+
+	// Delete least recently used entries until the cache fits into maxBytes
+	private void evict() throws IOException {
+		for (Iterator<Map.Entry<Path, Long>> it = sizes.entrySet().iterator(); total > maxBytes && it.hasNext(); ) {
+			Map.Entry<Path, Long> e = it.next();
+			it.remove();
+			total -= e.getValue();
+			Files.deleteIfExists(e.getKey());
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/* MicroJava JFR Compilation Event
+   ===============================
+One event per compilation, recorded by JFR when the event "MJ.Compile" is
+enabled, e.g. with
+  java -XX:StartFlightRecording:filename=mj.jfr MJ.BatchCompiler ...
+The driver begins the event before it compiles a file and commits it with
+the file's Metrics afterwards.
+
+The event type is defined at run time with jdk.jfr.EventFactory and used
+through reflection, so the compiler still builds for Java 8. On a JVM
+without JFR, begin returns null and commit does nothing.
+*/
+package MJ;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+class CompileEvent {
+	private static final String[] name = {"file", "tokens", "inserts", "lookups", "maxDepth",
+		"fixups", "inlined", "bytes", "errors", "parseNanos", "optimizeNanos", "writeNanos"};
+	private static final String[] label = {"File", "Tokens", "Inserts", "Lookups", "Max Depth",
+		"Fixups", "Inlined", "Code Bytes", "Errors", "Parse", "Optimize", "Write"};
+	private static final Class<?>[] type = {String.class, long.class, long.class, long.class, int.class,
+		int.class, int.class, int.class, int.class, long.class, long.class, long.class};
+	private static final int timespans = 9;	// first field that is a time span (ns)
+
+	private static final Object factory;	// jdk.jfr.EventFactory; null without JFR
+	private static final Method newEvent, begin, shouldCommit, set, commit;
+
+	static {
+		Object f = null;
+		Method[] m = new Method[5];
+		try {
+			Class<?> ae = Class.forName("jdk.jfr.AnnotationElement");
+			Constructor<?> annotation = ae.getConstructor(Class.class, Object.class);
+			List<Object> eventAnnotations = Arrays.asList(
+				annotation.newInstance(Class.forName("jdk.jfr.Name"), "MJ.Compile"),
+				annotation.newInstance(Class.forName("jdk.jfr.Label"), "MicroJava Compilation"),
+				annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] {"MicroJava"}));
+			Constructor<?> value = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+			List<Object> fields = new ArrayList<Object>();
+			for (int i = 0; i < label.length; i++) {
+				List<Object> a = new ArrayList<Object>();
+				a.add(annotation.newInstance(Class.forName("jdk.jfr.Label"), label[i]));
+				if (i >= timespans) a.add(annotation.newInstance(Class.forName("jdk.jfr.Timespan"), "NANOSECONDS"));
+				fields.add(value.newInstance(type[i], name[i], a));
+			}
+			Class<?> ef = Class.forName("jdk.jfr.EventFactory"), ev = Class.forName("jdk.jfr.Event");
+			f = ef.getMethod("create", List.class, List.class).invoke(null, eventAnnotations, fields);
+			m[0] = ef.getMethod("newEvent");
+			m[1] = ev.getMethod("begin");
+			m[2] = ev.getMethod("shouldCommit");
+			m[3] = ev.getMethod("set", int.class, Object.class);
+			m[4] = ev.getMethod("commit");
+		} catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+			f = null;	// no JFR
+		}
+		factory = f;
+		newEvent = m[0]; begin = m[1]; shouldCommit = m[2]; set = m[3]; commit = m[4];
+	}
+
+	// New event that has begun; null without JFR
+	static Object begin() {
+		if (factory == null) return null;
+		try {
+			Object e = newEvent.invoke(factory);
+			begin.invoke(e);
+			return e;
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	// Commit event (from begin) with the numbers of m
+	static void commit(Object event, String file, Metrics m) {
+		if (event == null) return;
+		try {
+			if (!(Boolean)shouldCommit.invoke(event)) return;
+			Object[] v = {file, m.tokens, m.inserts, m.lookups, m.maxDepth,
+				m.fixups, m.inlined, m.bytes, m.errors,
+				m.nanos(Metrics.parse), m.nanos(Metrics.optimize), m.nanos(Metrics.write)};
+			for (int i = 0; i < v.length; i++) set.invoke(event, i, v[i]);
+			commit.invoke(event);
+		} catch (ReflectiveOperationException e) {} // not recorded
+	}
+}
@@ -0,0 +1,125 @@
+/* MicroJava Diagnostics
+   =====================
+Collects the error messages of one compilation. Every diagnostic has a
+code (lexical, syntax, semantic, limit or io), a line, a column and a
+message; io diagnostics (the object file cannot be written) have line and
+column 0.
+They are kept in a compact list (one int array for code, line and column,
+one String array for the messages) and passed on to a sink as they are
+reported:
+  console     prints each message to System.out as it arrives
+  text(a)     appends each message to a (e.g. a StringBuilder that is
+              printed once the compilation is done)
+  json(a, f)  appends one JSON object per line to a
+  none        drops the messages; they are still recorded
+After maxErrors diagnostics (0: no limit) report throws TooManyErrors,
+which Parser.parse catches to stop the compilation early.
+*/
+package MJ;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class Diagnostics {
+	public static final int  // diagnostic codes
+		lexical  = 1,
+		syntax   = 2,
+		semantic = 3,
+		limit    = 4,
+		io       = 5;
+	private static final String[] codeName = {"none", "lexical", "syntax", "semantic", "limit", "io"};
+
+	// Receives every diagnostic as it is reported
+	public interface Sink {
+		void report(int code, int line, int col, String msg);
+	}
+
+	// Thrown by report when maxErrors diagnostics have been reported
+	public static class TooManyErrors extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		public TooManyErrors() { super("too many errors", null, false, false); }
+	}
+
+	public static final Sink none = (code, line, col, msg) -> {};
+
+	public static final Sink console = (code, line, col, msg) ->
+		System.out.println("-- line " + line + " col " + col + ": " + msg);
+
+	// Text lines "-- line l col c: msg" appended to out
+	public static Sink text(Appendable out) {
+		return (code, line, col, msg) -> {
+			try {
+				out.append("-- line ").append(Integer.toString(line)).append(" col ").append(Integer.toString(col))
+					.append(": ").append(msg).append('\n');
+			} catch (IOException e) {}
+		};
+	}
+
+	// One JSON object per line appended to out; file may be null
+	public static Sink json(Appendable out, String file) {
+		return (code, line, col, msg) -> {
+			StringBuilder sb = new StringBuilder(64 + msg.length());
+			sb.append('{');
+			if (file != null) quote(sb.append("\"file\":"), file).append(',');
+			sb.append("\"code\":\"").append(codeName[code]).append("\",\"line\":").append(line)
+				.append(",\"col\":").append(col).append(',');
+			quote(sb.append("\"message\":"), msg).append("}\n");
+			try {
+				out.append(sb);
+			} catch (IOException e) {}
+		};
+	}
+
+	static StringBuilder quote(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') sb.append('\\').append(c);
+			else if (c < ' ') sb.append(String.format("\\u%04x", (int)c));
+			else sb.append(c);
+		}
+		return sb.append('"');
+	}
+
+	public Sink sink;
+	public int maxErrors;				// stop after this many diagnostics; 0: no limit
+	private int[]    pos  = new int[3 * 8];	// code, line, col of each diagnostic
+	private String[] msgs = new String[8];
+	private int n;						// number of diagnostics
+
+	public Diagnostics(Sink sink, int maxErrors) {
+		this.sink = sink;
+		this.maxErrors = maxErrors;
+	}
+
+	public Diagnostics(Sink sink) {
+		this(sink, 0);
+	}
+
+	// Record a diagnostic and pass it to the sink
+	public void report(int code, int line, int col, String msg) {
+		if (n == msgs.length) {
+			msgs = Arrays.copyOf(msgs, 2 * n);
+			pos = Arrays.copyOf(pos, 6 * n);
+		}
+		pos[3*n] = code; pos[3*n+1] = line; pos[3*n+2] = col;
+		msgs[n++] = msg;
+		sink.report(code, line, col, msg);
+		if (n == maxErrors) throw new TooManyErrors();
+	}
+
+	public int size()            { return n; }
+	public int code(int i)       { return pos[3*i]; }
+	public int line(int i)       { return pos[3*i+1]; }
+	public int col(int i)        { return pos[3*i+2]; }
+	public String message(int i) { return msgs[i]; }
+
+	// Pass all recorded diagnostics to s
+	public void replay(Sink s) {
+		for (int i = 0; i < n; i++) s.report(pos[3*i], pos[3*i+1], pos[3*i+2], msgs[i]);
+	}
+
+	public void clear() {
+		n = 0;
+	}
+}
@@ -0,0 +1,87 @@
+/* MicroJava Compilation Metrics
+   =============================
+Counters and phase timers of one compilation (see Parser.metrics). The
+counters are plain fields that the compiler increments as it goes; the
+phases are timed with System.nanoTime around the whole phase only.
+
+  tokens    tokens read by the parser
+  inserts   objects entered into the symbol table
+  lookups   Tab.find calls
+  maxDepth  deepest scope level (globals = 0)
+  fixups    patched forward jumps
+  inlined   calls expanded by the inliner (see CodeGen.Inliner)
+  bytes     size of the final code
+  errors    reported errors
+
+BatchCompiler also records the numbers of each file in a JFR event, if
+JFR is available (see CompileEvent).
+*/
+package MJ;
+
+import java.util.Locale;
+
+public class Metrics {
+	public static final int  // phases
+		parse    = 0,	// scanning, parsing, symbol table and code generation
+		optimize = 1,	// with ir: inlining, loop invariants, local allocation and lowering
+					// of the IR (see Parser.ir); then peephole optimization
+		write    = 2;	// writing the object file
+	private static final String[] phaseName = {"parse", "optimize", "write"};
+
+	public long tokens;
+	public long inserts;
+	public long lookups;
+	public int  maxDepth;
+	public int  fixups;
+	public int  inlined;
+	public int  bytes;
+	public int  errors;
+	private final long[] nanos = new long[phaseName.length];
+	private final long start = System.nanoTime();
+	private long total = -1;	// set by finish
+
+	// Add the time since the System.nanoTime value from to phase
+	public void time(int phase, long from) {
+		nanos[phase] += System.nanoTime() - from;
+	}
+
+	public long nanos(int phase) {
+		return nanos[phase];
+	}
+
+	// Time from the start of this compilation to finish (or until now)
+	public long totalNanos() {
+		return total >= 0 ? total : System.nanoTime() - start;
+	}
+
+	// Add the counters of a part of this compilation (e.g. a method compiled in parallel)
+	public void add(Metrics m) {
+		tokens += m.tokens; inserts += m.inserts; lookups += m.lookups;
+		maxDepth = Math.max(maxDepth, m.maxDepth);
+		fixups += m.fixups;
+	}
+
+	// End of the compilation: stop the total time
+	public void finish() {
+		total = System.nanoTime() - start;
+	}
+
+	// One JSON object (without line end); file may be null
+	public String toJson(String file) {
+		StringBuilder sb = new StringBuilder(256);
+		sb.append('{');
+		if (file != null) Diagnostics.quote(sb.append("\"file\":"), file).append(',');
+		sb.append("\"tokens\":").append(tokens)
+			.append(",\"inserts\":").append(inserts)
+			.append(",\"lookups\":").append(lookups)
+			.append(",\"maxDepth\":").append(maxDepth)
+			.append(",\"fixups\":").append(fixups)
+			.append(",\"inlined\":").append(inlined)
+			.append(",\"bytes\":").append(bytes)
+			.append(",\"errors\":").append(errors);
+		for (int p = 0; p < nanos.length; p++)
+			sb.append(",\"").append(phaseName[p]).append("Ms\":").append(String.format(Locale.ROOT, "%.3f", nanos[p] / 1e6));
+		sb.append(",\"totalMs\":").append(String.format(Locale.ROOT, "%.3f", totalNanos() / 1e6));
+		return sb.append('}').toString();
+	}
+}
@@ -0,0 +1,88 @@
+/* MicroJava Name Table
+   ====================
+Interns the identifiers of one compilation. Every distinct name gets a
+small integer id the first time it is seen; the symbol table compares
+these ids instead of strings.
+Only one thread may intern, but name may be called from another thread
+for ids it has received from the interning thread (see PipelinedScanner).
+While the table is frozen, any number of threads may intern names that
+it already holds; a new name is an error (see Parser.Methods, whose
+skipping pass interns every name of the method bodies first).
+*/
+package MJ;
+
+import java.util.Arrays;
+
+public class NameTable {
+	private int[]    table = new int[256];	// open addressing on the name hash: id+1, 0 = empty
+	private volatile String[] names = new String[64];	// id -> name; replaced only when full
+	private int[]    hash  = new int[64];	// id -> hash of the name
+	private int      n;						// number of names
+	private volatile boolean frozen;		// no new names (see freeze)
+
+	// Id of the name buf[start..end[; the name is entered if it is new
+	public int intern(char[] buf, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) h = 31 * h + buf[i]; // same as String.hashCode
+		int mask = table.length - 1;
+		for (int i = h & mask; ; i = (i + 1) & mask) {
+			int id = table[i] - 1;
+			if (id < 0) {
+				if (frozen) throw new IllegalStateException("name table is frozen: " + new String(buf, start, end - start));
+				id = enter(new String(buf, start, end - start), h);
+				table[i] = id + 1;
+				if (2 * n > table.length) rehash();
+				return id;
+			}
+			if (hash[id] == h && names[id].length() == end - start) {
+				String s = names[id];
+				int k = 0;
+				while (k < s.length() && s.charAt(k) == buf[start + k]) k++;
+				if (k == s.length()) return id;
+			}
+		}
+	}
+
+	// Id of the name s; the name is entered if it is new
+	public int intern(String s) {
+		return intern(s.toCharArray(), 0, s.length());
+	}
+
+	// Make the table read-only (frozen) or writable again; no thread may intern
+	// meanwhile (a pipelined scanner is held, see Parser.Methods)
+	public void freeze(boolean frozen) {
+		this.frozen = frozen;
+	}
+
+	// Name with the given id
+	public String name(int id) {
+		return names[id];
+	}
+
+	// Number of distinct names
+	public int size() {
+		return n;
+	}
+
+	private int enter(String s, int h) {
+		String[] a = names;
+		if (n == a.length) {
+			a = Arrays.copyOf(a, 2 * n);
+			hash = Arrays.copyOf(hash, 2 * n);
+			a[n] = s;
+			names = a;	// publish the filled copy
+		} else a[n] = s;
+		hash[n] = h;
+		return n++;
+	}
+
+	private void rehash() {
+		table = new int[2 * table.length];
+		int mask = table.length - 1;
+		for (int id = 0; id < n; id++) {
+			int i = hash[id] & mask;
+			while (table[i] != 0) i = (i + 1) & mask;
+			table[i] = id + 1;
+		}
+	}
+}
@@ -3,7 +3,9 @@
 */
 package MJ;
 
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import MJ.SymTab.*;
 import MJ.CodeGen.*;
 
@@ -53,20 +55,78 @@ public class Parser {
 		"program", "read", "return", "void", "while", "eof"
 		};
 
-	private static Token t;			// current token (recently recognized)
-	private static Token la;		// lookahead token
-	private static int sym;			// always contains la.kind
-	public  static int errors;  // error counter
-	private static int errDist;	// no. of correctly recognized tokens since last error
+	private static final int  // results of Condition besides the compare operators
+		always = 6,		// constant condition that is true
+		never  = 7;		// constant condition that is false
 
-	private static BitSet exprStart, statStart, statSync, statSeqFollow, declSync, declFollow;
+	private static final BitSet exprStart, statStart, statSync, statSeqFollow, declSync;
+
+	private final Scanner scanner;	// token source of this compilation
+	public  final Tab tab;		// symbol table of this compilation
+	public  final Code code;		// code buffer of this compilation
+	private Token t  = new Token();	// current token (recently recognized)
+	private Token la = new Token();	// lookahead token
+	private int sym;			// always contains la.kind
+	public  int errors;			// error counter
+	public  final Diagnostics diag;	// error messages of this compilation
+	public  final Metrics metrics = new Metrics();	// counters and phase times of this compilation
+	private int errDist;		// no. of correctly recognized tokens since last error
+	private Obj curMethod;		// method being compiled
+	private boolean returned;	// the last Statement or Block returns on every path
+	public  boolean optimize = true;	// run the peephole optimizer on error-free code
+	public  boolean parallel;		// compile the method bodies in parallel (see Methods)
+	public  Executor fragmentExecutor;	// with parallel: runs the method bodies (null: a shared
+						// pool, one thread per CPU); not the executor running this parse
+	public  boolean ir;			// optimize through the intermediate representation (see CodeGen.IR)
+	public  int inline = Inliner.defaultSize;	// with ir: largest method that is inlined (0: none)
+	public  StringBuilder inlineReport;	// with ir: receives what was inlined (if not null)
+	public  Appendable symbolDump;	// receives a dump of the symbol table (if not null)
+
+	private static ExecutorService fragmentPool;	// default fragmentExecutor, created on first use
+
+	// A method whose body is compiled on its own (see Methods)
+	private static class Fragment {
+		Obj   meth;
+		Scope scope;			// its parameters and local variables
+		int   pos, line, col;	// position of the body
+		Code  code;				// code of the method
+		Metrics metrics;		// counters of the body
+		Diagnostics diag;		// errors in the body
+	}
+
+	// A Parser holds all state of one compilation, so independent
+	// compilations can run concurrently on separate Parser instances.
+	public Parser(Scanner scanner, Diagnostics diag) {
+		this.scanner = scanner;
+		this.diag = diag;
+		scanner.diag = diag;
+		tab = new Tab(this, scanner.names);
+		code = new Code(this);
+	}
+
+	// Report errors to the scanner's diagnostics (by default printed to System.out)
+	public Parser(Scanner scanner) {
+		this(scanner, scanner.diag);
+	}
 
 	//------------------- auxiliary methods ----------------------
-	private static void scan() {
+	private void dump(Obj scope) {
+		if (symbolDump == null) return;
+		try {
+			tab.dumpScope(scope, symbolDump);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void scan() { // t and la are reused, so scanning allocates no tokens
+		Token h = t;
 		t = la;
-		la = Scanner.next();
+		la = h;
+		scanner.next(la);
 		sym = la.kind;
 		errDist++;
+		metrics.tokens++;
 		/*
 		System.out.print("line " + la.line + ", col " + la.col + ": " + name[sym]);
 		if (sym == ident) System.out.print(" (" + la.string + ")");
@@ -74,135 +134,290 @@ public class Parser {
 		System.out.println();*/
 	}
 
-	private static void check(int expected) {
+	private void check(int expected) {
 		if (sym == expected) scan();
-		else error(name[expected] + " expected");
+		else error(Diagnostics.syntax, name[expected] + " expected");
 	}
 
-	public static void error(String msg) { // syntactic error at token la
+	public void error(int code, String msg) { // error at token la
 		if (errDist >= 3) {
-			System.out.println("-- line " + la.line + " col " + la.col + ": " + msg);
 			errors++;
+			diag.report(code, la.line, la.col, msg);
 		}
 		errDist = 0;
 	}
 
+	public void error(String msg) { // semantic error at token la
+		error(Diagnostics.semantic, msg);
+	}
+
 	//-------------- parsing methods (in alphabetical order) -----------------
 
 	// "program" ident {ConstDecl | ClassDecl | VarDecl} '{' {MethodDecl} '}'.
-	private static void Program() {
+	private void Program() {
             check(program_);
             check(ident);
-            Tab.openScope();
+            Obj prog = tab.insert(Obj.Prog, t.id, Tab.noType);
+            tab.openScope();
             for(;;){
                 if(sym == class_) ClassDecl();
                 else if(sym == final_) ConstDecl();
                 else if(sym == ident) VarDecl();
                 else if (sym == lbrace || sym == eof) break;
                 else {
-                    error("invalid declaration");
+                    error(Diagnostics.syntax, "invalid declaration");
                     while (!declSync.get(sym)) scan();
                     errDist = 0;
                 }
             }
+            code.dataSize = tab.curScope.nVars;
             check(lbrace);
-            while(sym == ident || sym == void_) MethodDecl();
+            if(parallel) Methods();
+            else while(sym == ident || sym == void_) MethodDecl();
             check(rbrace);
-            Tab.dumpScope(Tab.curScope.locals);
-            Tab.closeScope();
+            if(code.mainPc < 0) error("method main not found");
+            prog.locals = tab.curScope.locals;
+            dump(tab.curScope.locals);
+            tab.closeScope();
 	}
         
         // "final" Type ident "=" (number | charConst) ";"
-        private static void ConstDecl(){
+        private void ConstDecl(){
             check(final_);
             Struct type = Type(); // Get Type Identifier 
             check(ident);
-            Tab.insert(Obj.Con, t.string, type); // Insert New Symbol to Table
+            Obj con = tab.insert(Obj.Con, t.id, type); // Insert New Symbol to Table
             check(assign);
-            if(sym == number) scan();
-            else if(sym == charCon) scan();
+            if(sym == number) {
+                scan();
+                if(type != Tab.intType) error("Integer Constant Expected");
+                con.val = t.val;
+            }
+            else if(sym == charCon) {
+                scan();
+                if(type != Tab.charType) error("Character Constant Expected");
+                con.val = t.val;
+            }
             else error("Invalid Initilisation");
             check(semicolon);
         }
         
         // Type ident {"," ident } ";"
-        private static void VarDecl(){
+        private void VarDecl(){
             Struct type = Type(); // Get Type Identifier 
             check(ident);
-            Tab.insert(Obj.Var, t.string, type); // Insert New Symbol to Table
+            tab.insert(Obj.Var, t.id, type); // Insert New Symbol to Table
             while(sym == comma){ 
                 scan();
                 check(ident); 
-                Tab.insert(Obj.Var, t.string, type); // Insert New Symbol to Table 
+                tab.insert(Obj.Var, t.id, type); // Insert New Symbol to Table 
                 
             } 
             check(semicolon);
         }
         
         // = "class" ident "{" {VarDecl} "}"
-        private static void ClassDecl(){
+        private void ClassDecl(){
             check(class_);
-            Struct type;
             check(ident);
+            Struct type = new Struct(Struct.Class);
+            tab.insert(Obj.Type, t.id, type); // Insert New Symbol to Table
             check(lbrace);
-            Tab.openScope();
+            tab.openScope();
             while(sym == ident) VarDecl();
             check(rbrace);
-            Tab.dumpScope(Tab.curScope.locals);
-            Tab.closeScope();
+            type.fields = tab.curScope.locals;
+            type.nFields = tab.curScope.nVars;
+            type.members = tab.curScope;
+            dump(tab.curScope.locals);
+            tab.closeScope();
         }
         
         //(Type | "void") ident "(" [FormPars] ")" {VarDecl} Block.
-        private static void MethodDecl(){
-            Tab.openScope();
-            if(sym == void_) {
-                scan();
-                Tab.insert(Obj.Meth, t.string, Tab.noObj.type);
-            }
-            else if(sym == ident) {
-                Struct type = Type(); // Get Type Identifier
-                Tab.insert(Obj.Meth, t.string, type); // Insert New Symbol to Tabless
-            }
-            else error("Type Or Void Expected");
+        private void MethodDecl(){
+            MethodHeader();
+            MethodBody();
+            tab.closeScope();
+        }
+        
+        //(Type | "void") ident "(" [FormPars] ")" {VarDecl}; leaves the method scope open
+        private void MethodHeader(){
+            Struct type = Tab.noType;
+            if(sym == void_) scan();
+            else if(sym == ident) type = Type(); // Get Type Identifier
+            else error(Diagnostics.syntax, "Type Or Void Expected");
             check(ident);
+            curMethod = tab.insert(Obj.Meth, t.id, type); // Insert New Symbol to Table
+            curMethod.adr = code.pc;
+            boolean main = t.string.equals("main");
+            if(main){
+                code.mainPc = code.pc;
+                if(type != Tab.noType) error("main must be void");
+            }
+            tab.openScope();
             check(lpar);
             if(sym == ident) FormPars();
+            curMethod.nPars = (short)tab.curScope.nVars;
+            if(curMethod.nPars > 0 && main) error("main must not have parameters");
             check(rpar);
             while(sym == ident) VarDecl();
+            curMethod.locals = tab.curScope.locals;
+        }
+        
+        // Block, with the entry and exit code of curMethod
+        private void MethodBody(){
+            if(tab.curScope.nVars > 255) error(Diagnostics.limit, "too many parameters and local variables");
+            code.put(Code.enter);
+            code.put(curMethod.nPars);
+            code.put(tab.curScope.nVars);
             Block();
-            Tab.closeScope();
+            if(curMethod.type == Tab.noType){
+                if(!returned){
+                    code.put(Code.exit);
+                    code.put(Code.return_);
+                }
+            } else { // end of function reached without a return statement (also marks the end of a function)
+                code.put(Code.trap);
+                code.put(1);
+            }
+        }
+        
+        // {MethodDecl}, with the bodies compiled in parallel:
+        // the headers are parsed here and the methods are numbered (adr = number);
+        // each body is skipped and then compiled on its own with a fresh Parser
+        // into its own Code; finally the code is linked in declaration order.
+        // Skipping interns every name of the bodies, so the fragments share the
+        // name table frozen (read-only) while they run; a pipelined scanner is
+        // held meanwhile, so that it does not intern the names after the bodies.
+        private void Methods(){
+            List<Fragment> fragments = new ArrayList<Fragment>();
+            while(sym == ident || sym == void_){
+                Fragment f = new Fragment();
+                MethodHeader();
+                curMethod.adr = fragments.size() + 1;
+                f.meth = curMethod;
+                f.scope = tab.curScope;
+                f.pos = la.pos; f.line = la.line; f.col = la.col;
+                SkipBlock();
+                tab.closeScope();
+                fragments.add(f);
+            }
+            Executor executor = fragmentExecutor != null ? fragmentExecutor : fragmentPool();
+            List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+            scanner.hold();
+            scanner.names.freeze(true);
+            try {
+                for(Fragment f: fragments){
+                    FutureTask<Void> task = new FutureTask<Void>(() -> MethodFragment(f), null);
+                    executor.execute(task);
+                    tasks.add(task);
+                }
+                for(FutureTask<Void> task: tasks) await(task);
+            } finally {
+                scanner.names.freeze(false);
+                scanner.release();
+            }
+            Obj[] methods = new Obj[fragments.size()];
+            for(int i = 0; i < methods.length; i++) methods[i] = fragments.get(i).meth;
+            for(Fragment f: fragments){
+                f.meth.adr = code.pc;
+                if(tab.name(f.meth).equals("main")) code.mainPc = code.pc;
+                code.link(f.code, methods);
+                metrics.add(f.metrics);
+                f.diag.replay(diag::report);
+            }
+        }
+        
+        private static synchronized Executor fragmentPool(){
+            if(fragmentPool == null)
+                fragmentPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                    Thread t = new Thread(r, "MJ fragment");
+                    t.setDaemon(true);
+                    return t;
+                });
+            return fragmentPool;
+        }
+        
+        // Wait for task; its exception is thrown here
+        private static void await(FutureTask<Void> task){
+            try {
+                task.get();
+            } catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while compiling the method bodies", e);
+            } catch(ExecutionException e){
+                Throwable c = e.getCause();
+                if(c instanceof RuntimeException) throw (RuntimeException)c;
+                if(c instanceof Error) throw (Error)c;
+                throw new IllegalStateException(c);
+            }
+        }
+        
+        // Compile the body of f (on any thread); reads only the shared symbol table
+        private void MethodFragment(Fragment f){
+            Scanner s = new Scanner(scanner, f.pos, f.line, f.col);
+            Parser p = new Parser(s, new Diagnostics(Diagnostics.none));
+            s.diag = new Diagnostics(Diagnostics.none); // lexical errors were reported while skipping
+            p.tab.reopen(tab, f.scope, f.meth.adr);
+            p.code.init();
+            p.curMethod = f.meth;
+            p.errDist = 3;
+            p.scan();
+            p.MethodBody();
+            f.code = p.code;
+            f.diag = p.diag;
+            f.metrics = p.metrics;
+        }
+        
+        // "{" ... "}" with balanced braces, without parsing it
+        private void SkipBlock(){
+            if(sym != lbrace) return; // the body reports it
+            int depth = 0;
+            do {
+                if(sym == lbrace) depth++;
+                else if(sym == rbrace) depth--;
+                scan();
+            } while(depth > 0 && sym != eof);
         }
         
         // Type ident {"," Type ident}
-        private static void FormPars(){
+        private void FormPars(){
             Struct type = Type(); // Get Type Identifier
-            Tab.insert(Obj.Type, t.string, type); // Insert New Symbol to Tabless
             check(ident);
+            tab.insert(Obj.Var, t.id, type); // Insert New Symbol to Table
             while(sym == comma) { 
                 scan(); 
                 type = Type(); // Get Type Identifier
                 check(ident); 
-                Tab.insert(Obj.Type, t.string, type); // Insert New Symbol to Tabless
+                tab.insert(Obj.Var, t.id, type); // Insert New Symbol to Table
             }
         }
         
         // ident ["[" "]"]
-        private static Struct Type(){
+        private Struct Type(){
             check(ident);
-            Obj obj = Tab.find(t.string);
+            Obj obj = tab.find(t.id);
+            if(obj.kind != Obj.Type && obj != Tab.noObj) error("Type Expected");
             Struct type = obj.type;
             if(sym == lbrack) { 
                 scan(); 
                 check(rbrack); 
-                type = new Struct(Struct.Arr, type);
+                type = Struct.arrayOf(type);
             }
             return type;
         }
         
         // "{" {Statement} "}"
-        private static void Block(){
+        private void Block(){
             check(lbrace);
-            while(sym != rbrace && sym != eof){ Statement(); }
+            boolean ended = false; // a statement returned: the following ones are unreachable
+            while(sym != rbrace && sym != eof){
+                int mark = code.pc;
+                Statement();
+                if(ended) code.pc = mark; // checked, but no code
+                else ended = returned;
+            }
+            returned = ended;
             check(rbrace);
         }
         
@@ -214,9 +429,12 @@ public class Parser {
         // | "print" "(" Expr ["," number] ")" ";"
         // | Block
         // | ";"
-        private static void Statement(){
+        private void Statement(){
+            Operand x, y;
+            int op, adr, adr2, top;
+            returned = false;
             if(!statStart.get(sym)){
-                error("Invalid Start Of Statement");
+                error(Diagnostics.syntax, "Invalid Start Of Statement");
                 while(!statSync.get(sym)) scan();
                 if (sym == semicolon) scan();
                 errDist = 0;
@@ -224,41 +442,110 @@ public class Parser {
             
             // Check Designator Statement
             if(sym == ident){
-                Designator();
-                if(sym == assign) { scan(); Expr(); }
-                else if(sym == lbrace) ActPars();
-                else error("Assignment Operator or Parameters Expected");
+                x = Designator();
+                if(sym == assign) {
+                    scan();
+                    y = Expr();
+                    if(y.type.assignableTo(x.type)) code.assign(x, y);
+                    else error("Incompatible Types In Assignment");
+                }
+                else if(sym == lpar) {
+                    Call(x);
+                    if(x.type != Tab.noType) code.put(Code.pop);
+                }
+                else error(Diagnostics.syntax, "Assignment Operator or Parameters Expected");
                 check(semicolon);
             
             // Check If Statement
             } else if(sym == if_){
                 scan();
                 check(lpar);
-                Condition();
+                op = Condition();
                 check(rpar);
-                Statement();
-                if(sym == else_){ scan(); Statement();}
+                if(op == always || op == never){ // only the arm that is taken gets code
+                    adr = code.pc;
+                    Statement();
+                    if(op == never){ code.pc = adr; returned = false; }
+                    if(sym == else_){
+                        scan();
+                        boolean thenReturned = returned;
+                        adr = code.pc;
+                        Statement();
+                        if(op == always){ code.pc = adr; returned = thenReturned; }
+                    }
+                } else {
+                    code.putFalseJump(op, 0); // Jump Over Then Part
+                    adr = code.pc - 2;
+                    Statement();
+                    if(sym == else_){
+                        scan();
+                        boolean thenReturned = returned;
+                        adr2 = -1;
+                        if(!thenReturned){
+                            code.putJump(0); // Jump Over Else Part
+                            adr2 = code.pc - 2;
+                        }
+                        code.fixup(adr);
+                        Statement();
+                        if(adr2 >= 0) code.fixup(adr2);
+                        returned = thenReturned && returned;
+                    } else {
+                        code.fixup(adr);
+                        returned = false;
+                    }
+                }
             
             // Check While Loop Statement
             } else if( sym == while_) {
                 scan();
+                top = code.pc;
                 check(lpar);
-                Condition();
+                op = Condition();
                 check(rpar);
-                Statement();
+                if(op == never){ // checked, but no code
+                    Statement();
+                    code.pc = top;
+                    returned = false;
+                } else if(op == always){ // never left
+                    Statement();
+                    code.putJump(top);
+                    returned = true;
+                } else { // inverted: the test follows the body, so an iteration has one jump
+                    byte[] test = code.cut(top);
+                    code.putJump(0); // Jump To The Test
+                    adr = code.pc - 2;
+                    top = code.pc;
+                    Statement();
+                    code.fixup(adr);
+                    code.put(test);
+                    code.putTrueJump(op, top); // Jump Back Into The Loop
+                    returned = false;
+                }
             
             // Check Return Statement
             } else if(sym == return_) {
                 scan();
-                if(exprStart.get(sym)) Expr();
-                else error("No Return Value Given");
+                if(exprStart.get(sym)) {
+                    x = Expr();
+                    code.load(x);
+                    if(curMethod.type == Tab.noType) error("Void Method Must Not Return A Value");
+                    else if(!x.type.assignableTo(curMethod.type)) error("Type Of Return Value Does Not Match");
+                }
+                else if(curMethod.type != Tab.noType) error("No Return Value Given");
+                code.put(Code.exit);
+                code.put(Code.return_);
                 check(semicolon);
+                returned = true;
             
             // Check Read Statement
             } else if(sym == read_){
                 scan();
                 check(lpar);
-                Designator();
+                x = Designator();
+                if(x.type == Tab.intType) code.put(Code.read);
+                else if(x.type == Tab.charType) code.put(Code.bread);
+                else error("Can Only Read int Or char Variables");
+                code.assign(x, new Operand(Operand.Stack, 0, x.type));
                 check(rpar);
                 check(semicolon);
             
@@ -266,8 +553,14 @@ public class Parser {
             } else if(sym == print_){
                 scan();
                 check(lpar);
-                Expr();
-                if(sym == comma) {scan(); check(number);}
+                x = Expr();
+                code.load(x);
+                int width = 0;
+                if(sym == comma) {scan(); check(number); width = t.val;}
+                code.load(new Operand(width));
+                if(x.type == Tab.intType) code.put(Code.print);
+                else if(x.type == Tab.charType) code.put(Code.bprint);
+                else error("Can Only Print int Or char Values");
                 check(rpar);
                 check(semicolon);
             
@@ -285,162 +578,269 @@ public class Parser {
         }
         
         // "(" [ Expr {"," Expr} ] ")"
-        private static void ActPars(){
-            check(lbrace);
+        // loads the actual parameters of method m and checks them against its formal parameters
+        private void ActPars(Operand m){
+            check(lpar);
+            Obj fp = m.kind == Operand.Meth ? m.obj.locals : null;
+            int nPars = m.kind == Operand.Meth ? m.obj.nPars : 0, n = 0;
             if(exprStart.get(sym)) {
-                Expr();
-                while(sym == comma){
+                for(;;){
+                    Operand ap = Expr();
+                    code.load(ap);
+                    if(fp != null && n < nPars){
+                        if(!ap.type.assignableTo(fp.type)) error("Parameter Type Mismatch");
+                        fp = fp.next;
+                    }
+                    n++;
+                    if(sym != comma) break;
                     scan();
-                    Expr();
                 }
             }
-            check(rbrace);
+            if(n != nPars) error("Wrong Number Of Parameters");
+            check(rpar);
+        }
+        
+        // method call m(ActPars); the result (if any) is left on the stack
+        private void Call(Operand m){
+            if(m.kind != Operand.Meth) { error("Called Object Is Not A Method"); m.type = Tab.noType; }
+            ActPars(m);
+            if(m.obj == tab.ordObj || m.obj == tab.chrObj) ; // only changes the type
+            else if(m.obj == tab.lenObj) code.put(Code.arraylength);
+            else if(m.kind == Operand.Meth) code.putCall(m.adr);
+            m.kind = Operand.Stack;
         }
         
-        // Expr Relop Expr
-        private static void Condition(){
+        // Expr Relop Expr; returns the compare operator, or always/never
+        // without emitting any code if both sides are constants
+        private int Condition(){
             Operand operandX, operandY;
             operandX = Expr();
-            Code.load(operandX);
+            if(operandX.kind != Operand.Con) code.load(operandX);
             int operator = Relop();
+            int mark = code.pc;
             operandY = Expr();
-            Code.load(operandY);
             if(!operandX.type.compatibleWith(operandY.type)) 
                 error("Type Mismatch");
             if(operandX.type.isRefType() && operator != Code.eq 
                     && operator != Code.ne) 
                 error("Invalid Compare");
+            if(operandX.kind == Operand.Con && operandY.kind == Operand.Con)
+                return Compare(operator, operandX.val, operandY.val) ? always : never;
+            if(operandX.kind == Operand.Con) code.loadAt(mark, operandX);
+            code.load(operandY);
+            return operator;
+        }
+        
+        private static boolean Compare(int op, int a, int b){
+            switch(op){
+                case Code.eq: return a == b;
+                case Code.ne: return a != b;
+                case Code.lt: return a <  b;
+                case Code.le: return a <= b;
+                case Code.gt: return a >  b;
+                default:      return a >= b;
+            }
         }
         
         // "==" | "!=" | ">" | ">=" | "<" | "<="
-        private static int Relop(){
+        private int Relop(){
+            int returnVal;
             if(sym == eql) {
                 scan();
-                return Code.eq;
+                returnVal = Code.eq;
             }
             else if(sym == neq) {
                 scan();
-                return Code.
+                returnVal = Code.ne;
+            }
+            else if(sym == gtr) {
+                scan();
+                returnVal = Code.gt;
             }
-            else if(sym == gtr) scan();
-            else if(sym == geq) scan();
-            else if(sym == lss) scan();
-            else if(sym == leq) scan();
-            else error("Invalid Opperand");
+            else if(sym == geq) {
+                scan();
+                returnVal = Code.ge;
+            }
+            else if(sym == lss) {
+                scan();
+                returnVal = Code.lt;
+            }
+            else if(sym == leq) {
+                scan();
+                returnVal = Code.le;
+            }
+            else {
+                error(Diagnostics.syntax, "Invalid Opperand");
+                returnVal = Code.eq;
+            }
+            return returnVal;
         }
         
         // ["-"] Term {Addop Term}.
-        private static Operand Expr(){
+        private Operand Expr(){
             Operand operandX, operandY; int op;
-            if(sym == minus) scan();
+            boolean negate = false;
+            if(sym == minus) { scan(); negate = true; }
             operandX = Term();
-            if(operandX.type == Tab.intType){
-                if(operandX.kind == Operand.Con){
+            if(negate){
+                if(operandX.type != Tab.intType) error("Operand must be of type int");
+                else if(operandX.kind == Operand.Con){
                    operandX.val = -operandX.val;                
                 } else {
-                    Code.load(operandX);
-                    Code.put(Code.neg);
+                    code.load(operandX);
+                    code.put(Code.neg);
                 }
-            } else error("Operand must be of type int"); 
-            op = Addop();
+            }
             while(sym == plus || sym == minus){
                 op = Addop();
+                if(operandX.kind != Operand.Con) code.load(operandX);
+                int mark = code.pc;
                 operandY = Term();
-                Code.load(operandX);
-                Code.load(operandY);
+                Arith(operandX, op, operandY, mark);
             }
             return operandX;
         }
         
         // Factor {Mulop Factor} 
-        private static Operand Term(){
+        private Operand Term(){
             Operand operandY, operandX = Factor(); 
             int operator;
-            scan();
             while(sym == times || sym == slash || sym == rem){ 
                 operator = Mulop();
-                Code.load(operandX);
+                if(operandX.kind != Operand.Con) code.load(operandX);
+                int mark = code.pc;
                 operandY = Factor();
-                Code.load(operandY);
-                if(operandX.type != Tab.intType || operandY.type != Tab.intType) 
-                    error("Operands must be of type int");
-                Code.put(operator);
+                Arith(operandX, operator, operandY, mark);
             }
             return operandX;
         } // END OF Term
         
+        // x = x op y. Constants stay Con operands until a load is really needed:
+        // x is only unloaded here if it is a constant; mark is the pc before y's code.
+        private void Arith(Operand x, int op, Operand y, int mark){
+            if(x.type != Tab.intType || y.type != Tab.intType) 
+                error("Operands must be of type int");
+            if(x.kind == Operand.Con && y.kind == Operand.Con
+                    && !((op == Code.div || op == Code.rem) && y.val == 0)){
+                x.val = Fold(op, x.val, y.val); // computed at compile time
+                x.type = Tab.intType;
+                return;
+            }
+            if(x.kind == Operand.Con){
+                // y's code is already emitted, so x either follows it or is moved in front of it
+                if(op == Code.add || op == Code.mul){
+                    code.load(y);
+                    Apply(op, x);
+                } else if(op == Code.sub){
+                    code.load(y);
+                    code.put(Code.neg);
+                    Apply(Code.add, x);
+                } else {
+                    code.loadAt(mark, x);
+                    Apply(op, y);
+                }
+            } else Apply(op, y);
+            x.kind = Operand.Stack;
+            x.type = Tab.intType;
+        }
+        
+        // Stack top = stack top op y, with strength reduction for constant y
+        private void Apply(int op, Operand y){
+            if(y.kind == Operand.Con){
+                int v = y.val;
+                if((op == Code.add || op == Code.sub) && v == 0) return; // x +- 0
+                if((op == Code.mul || op == Code.div) && v == 1) return; // x */ 1
+                if(op == Code.mul && v > 0 && (v & (v - 1)) == 0){ // x * 2^k = x << k
+                    code.load(new Operand(Integer.numberOfTrailingZeros(v)));
+                    code.put(Code.shl);
+                    return;
+                }
+            }
+            code.load(y);
+            code.put(op);
+        }
+        
+        private static int Fold(int op, int a, int b){
+            switch(op){
+                case Code.add: return a + b;
+                case Code.sub: return a - b;
+                case Code.mul: return a * b;
+                case Code.div: return a / b;
+                case Code.rem: return a % b;
+                default: return a;
+            }
+        }
+        
         // Designator [ActPars]
         // | number
         // | charConst
         // | "new" ident ["[" Expr "]"]
         // | "(" Expr ")".
-        private static Operand Factor(){
-            Operand operand = new Operand(Tab.noObj);
+        private Operand Factor(){
+            Operand operand;
             Obj object;
             if(sym == ident) { 
-                scan();
                 operand = Designator();
                 if(sym == lpar) {
-                    scan();
-                    if(operand.kind == Operand.Meth){
-                        ActPars();
-                    }
+                    Call(operand);
+                    if(operand.type == Tab.noType) error("Procedure Called As A Function");
                 }
             } 
             else if(sym == number) {
                 scan();
-                operand.val = t.val;
-                Code.load(operand);
-                operand.type = Tab.intType;
+                operand = new Operand(t.val);
             }
             else if(sym == charCon) {
                 scan();
-                operand.val = t.val;
-                Code.load(operand);
-                operand.type = Tab.charType;
+                operand = new Operand(Operand.Con, t.val, Tab.charType);
             }
             else if(sym == new_) { 
                 scan();
                 check(ident);
-                object = Tab.find(t.string);
+                object = tab.find(t.id);
+                if(object.kind != Obj.Type) error("Type Expected");
                 Struct type = object.type;
                 if(sym == lbrack){ 
                     scan(); 
                     // Checks array contains int
-                    if(Expr().type != Tab.intType) error("Must Be An Int");
+                    Operand size = Expr();
+                    if(size.type != Tab.intType) error("Must Be An Int");
+                    code.load(size);
                     check(rbrack); 
-                    type = new Struct(Struct.Arr, type);
-                    Code.put(Code.newarray);
-                    if(type.elemType == Tab.charType) Code.put(0);
-                    else Code.put(1);
+                    code.put(Code.newarray);
+                    if(type == Tab.charType) code.put(0);
+                    else code.put(1);
+                    type = Struct.arrayOf(type);
                 } else {
                     if(type.kind != Struct.Class) error("Illegal Inistialisation");
-                    Code.put(Code.new_); 
-                    Code.put2(type.fields.nPars);
+                    code.put(Code.new_); 
+                    code.put2(type.nFields);
                 }
-                operand.kind = Operand.Stack;
-                operand.type = type;
+                operand = new Operand(Operand.Stack, 0, type);
             }
             else if(sym == lpar) { 
                 scan(); 
                 operand = Expr();
                 check(rpar); }  
-            else error("Invalid Factor");
+            else {
+                error(Diagnostics.syntax, "Invalid Factor");
+                operand = new Operand(Tab.noObj, this);
+            }
             return operand;
         } // END OF Factor
         
         // ident {"." ident | "[" Expr "]"}
-        private static Operand Designator(){
+        private Operand Designator(){
             check(ident);
-            Obj obj = Tab.find(t.string); // Find the object
-            Operand x = new Operand(obj);
+            Obj obj = tab.find(t.id); // Find the object
+            Operand x = new Operand(obj, this);
             for(;;){
                 if(sym == period){
                     scan(); 
                     check(ident);
                     if(x.type.kind == Struct.Class){
-                        Code.load(x);
-                        obj = Tab.findField(t.string, x.type); // Find field
+                        code.load(x);
+                        obj = tab.findField(t.id, x.type); // Find field
                         x.kind = Operand.Fld;
                         x.adr = obj.adr;
                         x.type = obj.type;
@@ -449,14 +849,15 @@ public class Parser {
                 
                 }  else if(sym == lbrack){ 
                     scan(); 
-                    Expr(); 
+                    code.load(x);
+                    Operand index = Expr(); 
+                    if(index.type != Tab.intType) error("Index Must Be An Int");
+                    code.load(index);
                     if(x.type.kind == Struct.Arr){
-                        Code.load(x);
                         x.kind = Operand.Elem;
-                        x.adr = obj.adr;
-                        x.type = obj.type; 
-                       check(rbrack);
+                        x.type = x.type.elemType; 
                     } else error("Invalid Array Access");
+                    check(rbrack);
                 
                 } else break;
             
@@ -465,7 +866,7 @@ public class Parser {
         } // END OF Designator
         
         // "+" | "-"
-        private static int Addop(){
+        private int Addop(){
             int returnVal;
             if(sym == plus) {
                 scan();
@@ -476,14 +877,14 @@ public class Parser {
                 returnVal = Code.sub;
             }
             else {
-                error("Expecting + or -");
+                error(Diagnostics.syntax, "Expecting + or -");
                 returnVal = Code.trap;
             }
             return returnVal;
         }
         
         // "*" | "/" | "%"
-        private static int Mulop(){
+        private int Mulop(){
             int returnVal;
             if(sym == times) {
                 scan();
@@ -498,17 +899,13 @@ public class Parser {
                 returnVal = Code.rem;
             }
             else {
-                error("Expecting *, / or %");
+                error(Diagnostics.syntax, "Expecting *, / or %");
                 returnVal = Code.trap;
             }
             return returnVal;
         }
 
-	public static void parse() {
-		// initialize symbol sets
-                Tab.init();
-                Code.init();
-                
+	static { // initialize symbol sets; they are never modified afterwards
 		BitSet s;
 		s = new BitSet(64); exprStart = s;
 		s.set(ident); s.set(number); s.set(charCon); s.set(new_); s.set(lpar); s.set(minus);
@@ -527,19 +924,57 @@ public class Parser {
 		s = new BitSet(64); declSync = s;
 		s.set(final_); s.set(ident); s.set(class_);
 		s.set(lbrace); s.set(eof);
+	}
+
+	public void parse() {
+		tab.init();
+		code.init();
 
 		// start parsing
 		errors = 0; errDist = 3;
-		scan();
-		Program();
-		if (sym != eof) error("end of file found before end of program");
+		long start = System.nanoTime();
+		try {
+			scan();
+			Program();
+			if (sym != eof) error(Diagnostics.syntax, "end of file found before end of program");
+		} catch (Diagnostics.TooManyErrors e) {
+			// maxErrors reached: stop parsing
+		} finally {
+			scanner.close();
+		}
+		errors = diag.size();	// including lexical errors
+		metrics.time(Metrics.parse, start);
+		if (errors == 0 && optimize) {
+			start = System.nanoTime();
+			if (ir) {
+				IR r = new IR(code);
+				if (inline > 0) {
+					Inliner inliner = new Inliner();
+					inliner.maxSize = inline;
+					inliner.names = methodNames();
+					inliner.report = inlineReport;
+					inliner.optimize(r);
+					metrics.inlined = inliner.inlined;
+				}
+				new LoopInvariants().optimize(r);
+				new LocalAllocator().allocate(r);
+				r.lower(code);
+			}
+			new Peephole().optimize(code);
+			metrics.time(Metrics.optimize, start);
+		}
+		metrics.bytes = code.pc;
+		metrics.errors = errors;
 	}
 
-}
-
-
-
-
-
-
+	// Names of the methods of the compiled program by address (after parse)
+	private Map<Integer, String> methodNames() {
+		Map<Integer, String> names = new HashMap<Integer, String>();
+		for (Obj o = tab.curScope.locals; o != null; o = o.next)
+			if (o.kind == Obj.Prog)
+				for (Obj m = o.locals; m != null; m = m.next)
+					if (m.kind == Obj.Meth) names.put(m.adr, tab.name(m));
+		return names;
+	}
 
+}
@@ -0,0 +1,220 @@
+/* MicroJava Pipelined Scanner
+   ===========================
+A Scanner that tokenizes ahead on its own thread. The scanner thread
+writes each token as a record of ints (kind, line, col, val, pos, len, id)
+into a bounded single-producer/single-consumer ring buffer; next(Token)
+reads the records on the parser's thread. A full ring blocks the scanner
+thread (backpressure), an empty ring blocks the parser. A blocked side
+spins briefly (not at all on a single CPU) and then parks. The parser
+unparks the scanner thread once the ring is half empty, and the scanner
+thread unparks the parser once a batch of tokens is ready, so the threads
+switch once per batch and not once per token. The records are published
+with lazySet, so a wakeup can be missed; a park therefore lasts at most
+maxPark.
+
+Lexical errors are carried with their token and reported to diag on the
+parser's thread, in the same order as with the synchronous Scanner.
+The scanning runs on a thread of a shared pool. It starts with the first
+call of next and ends at eof or when the parser calls close.
+
+The scanner thread interns names into the compilation's NameTable. While
+the method bodies are compiled in parallel the table is frozen, and the
+parser holds the scanner thread between two tokens (hold/release), so it
+neither interns nor runs into the frozen table meanwhile.
+*/
+package MJ;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class PipelinedScanner extends Scanner {
+	private static final int  // token codes
+		ident = 1,
+		eof   = 36;
+	private static final int fields = 7;	// ints per token record
+	public  static final int defaultCapacity = 4096;	// tokens
+	private static final int spins = Runtime.getRuntime().availableProcessors() > 1 ? 256 : 0;	// before parking
+	private static final long maxPark = 1000000;	// ns
+	private static final int batch = 64;	// tokens ready before the parser is unparked
+	private static final ExecutorService producers = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "MJ scanner");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final int capacity;
+	private final int mask;
+	private final int[] ring;			// token records
+	private final String[] errs;		// lexical error of each record or null
+	private final AtomicLong head = new AtomicLong();	// next record to read
+	private final AtomicLong tail = new AtomicLong();	// next record to write
+	private volatile boolean closed;
+	private volatile Throwable failure;	// exception of the scanner thread
+	private volatile Thread parkedProducer;	// scanner thread while it is parked
+	private volatile Thread parkedConsumer;	// parser thread while it is parked
+	private volatile Thread producer;		// scanner thread once it runs
+	private volatile Thread holder;			// parser thread while it waits in hold
+	private volatile boolean hold;			// the scanner thread shall stop before its next token
+	private volatile boolean held;			// the scanner thread has stopped or ended
+	private boolean started;
+
+	// parser side
+	private long readPos;				// = head
+	private long available;				// tail as last seen by the parser
+	private boolean atEof;
+	private final Token last = new Token();	// eof token, repeated after eof
+
+	// scanner side
+	private String err;					// lexical error of the current token
+
+	// capacity is rounded up to a power of 2
+	public PipelinedScanner(char[] src, int len, int capacity) {
+		super(src, len);
+		int c = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		this.capacity = c;
+		mask = c - 1;
+		ring = new int[c * fields];
+		errs = new String[c];
+	}
+
+	public PipelinedScanner(char[] src, int len) {
+		this(src, len, defaultCapacity);
+	}
+
+	public PipelinedScanner(Path file) throws IOException {
+		this(decode(file));
+	}
+
+	private PipelinedScanner(char[] src) {
+		this(src, src.length, defaultCapacity);
+	}
+
+	//---------- scanner thread
+	void error(Token token, String msg) {
+		if (err == null) err = msg;
+	}
+
+	private void produce() {
+		Token t = new Token();
+		long wpos = 0, free = 0;	// free: head as last seen by this thread
+		producer = Thread.currentThread();
+		try {
+			for (;;) {
+				if (wpos - free == capacity) {
+					for (int n = 0; wpos - (free = head.get()) == capacity; n++) {
+						if (closed) return;
+						stopIfHeld();
+						if (n >= spins) {
+							parkedProducer = Thread.currentThread();
+							if (wpos - head.get() == capacity && !closed) LockSupport.parkNanos(this, maxPark);
+							parkedProducer = null;
+						}
+					}
+				}
+				stopIfHeld();
+				err = null;
+				scan(t);
+				int s = (int)wpos & mask, i = s * fields;
+				ring[i] = t.kind; ring[i+1] = t.line; ring[i+2] = t.col; ring[i+3] = t.val;
+				ring[i+4] = t.pos; ring[i+5] = t.len; ring[i+6] = t.id;
+				errs[s] = err;
+				tail.lazySet(++wpos);	// publish the record
+				Thread c = parkedConsumer;
+				if (c != null && (t.kind == eof || wpos - head.get() >= batch)) {
+					parkedConsumer = null;	// unpark it once
+					LockSupport.unpark(c);
+				}
+				if (t.kind == eof) return;
+			}
+		} catch (Throwable e) {
+			failure = e;
+			unpark(parkedConsumer);
+		} finally {
+			held = true;	// ended: it will not intern any more
+			unpark(holder);
+		}
+	}
+
+	// Wait here while the parser holds this thread
+	private void stopIfHeld() {
+		if (!hold) return;
+		held = true;
+		unpark(holder);
+		while (hold && !closed) LockSupport.park(this);
+		held = false;
+	}
+
+	private static void unpark(Thread t) {
+		if (t != null) LockSupport.unpark(t);
+	}
+
+	//---------- parser thread
+	public void next(Token token) {
+		if (atEof) {
+			copy(last, token);
+			return;
+		}
+		if (!started) {
+			started = true;
+			producers.execute(this::produce);
+		}
+		if (readPos == available) {
+			for (int n = 0; readPos == (available = tail.get()); n++) {
+				if (failure != null) throw new IllegalStateException("scanner thread failed", failure);
+				if (n >= spins) {
+					parkedConsumer = Thread.currentThread();
+					if (readPos == tail.get() && failure == null) LockSupport.parkNanos(this, maxPark);
+					parkedConsumer = null;
+				}
+			}
+		}
+		int s = (int)readPos & mask, i = s * fields;
+		token.kind = ring[i]; token.line = ring[i+1]; token.col = ring[i+2]; token.val = ring[i+3];
+		token.pos = ring[i+4]; token.len = ring[i+5]; token.id = ring[i+6];
+		token.string = token.kind == ident ? names.name(token.id) : null;
+		String msg = errs[s];
+		head.lazySet(++readPos);	// release the record
+		Thread p = parkedProducer;
+		if (p != null && tail.get() - readPos <= capacity / 2) {
+			parkedProducer = null;
+			LockSupport.unpark(p);
+		}
+		if (token.kind == eof) {
+			atEof = true;
+			copy(token, last);
+		}
+		if (msg != null) diag.report(Diagnostics.lexical, token.line, token.col, msg);
+	}
+
+	private static void copy(Token from, Token to) {
+		to.kind = from.kind; to.line = from.line; to.col = from.col; to.val = from.val;
+		to.pos = from.pos; to.len = from.len; to.id = from.id; to.string = from.string;
+	}
+
+	// Stop the scanner thread before its next token and wait until it has stopped;
+	// its names are then visible to the parser thread
+	void hold() {
+		if (!started) return;
+		holder = Thread.currentThread();
+		hold = true;
+		unpark(parkedProducer);
+		while (!held) LockSupport.park(this);
+		holder = null;
+	}
+
+	// Let the scanner thread go on after hold
+	void release() {
+		if (!hold) return;
+		hold = false;
+		unpark(producer);
+	}
+
+	// Stop the scanner thread if the parser ends before eof
+	public void close() {
+		closed = true;
+		unpark(parkedProducer);
+	}
+}
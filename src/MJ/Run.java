@@ -0,0 +1,321 @@
+/* MicroJava Virtual Machine
+   =========================
+   Loads an object file written by Code.write and executes it.
+   Run with
+     java MJ.Run [-jit] <objFileName>
+   The program reads from System.in and prints to System.out.
+   With -jit the program is translated to a JVM class first
+   (see CodeGen.JvmTranslator) and runs as Java code.
+
+   Memory:
+     code    the code of the object file
+     data    static variables (dataSize words)
+     heap    objects and arrays; address 0 is null.
+             An object of n fields occupies n words, an array of n
+             elements occupies n+1 words (the length, then the elements).
+     estack  expression stack
+     mstack  method stack with the frames (return address, old fp, locals)
+   Jump and call targets are absolute code addresses.
+*/
+package MJ;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Arrays;
+import MJ.CodeGen.*;
+
+public class Run {
+	private static final int  // instruction codes
+		load        =  1,
+		load0       =  2,
+		load1       =  3,
+		load2       =  4,
+		load3       =  5,
+		store       =  6,
+		store0      =  7,
+		store1      =  8,
+		store2      =  9,
+		store3      = 10,
+		getstatic   = 11,
+		putstatic   = 12,
+		getfield    = 13,
+		putfield    = 14,
+		const0      = 15,
+		const1      = 16,
+		const2      = 17,
+		const3      = 18,
+		const4      = 19,
+		const5      = 20,
+		const_m1    = 21,
+		const_      = 22,
+		add         = 23,
+		sub         = 24,
+		mul         = 25,
+		div         = 26,
+		rem         = 27,
+		neg         = 28,
+		shl         = 29,
+		shr         = 30,
+		new_        = 31,
+		newarray    = 32,
+		aload       = 33,
+		astore      = 34,
+		baload      = 35,
+		bastore     = 36,
+		arraylength = 37,
+		pop         = 38,
+		jmp         = 39,
+		jeq         = 40,
+		jne         = 41,
+		jlt         = 42,
+		jle         = 43,
+		jgt         = 44,
+		jge         = 45,
+		call        = 46,
+		return_     = 47,
+		enter       = 48,
+		exit        = 49,
+		read        = 50,
+		print       = 51,
+		bread       = 52,
+		bprint      = 53,
+		trap		    = 54;
+	private static final int estackSize = 1024;	// words
+	private static final int mstackSize = 65536;	// words
+	private static final int heapSize   = 65536;	// initial heap size in words
+
+	// Thrown for run-time errors of the MicroJava program
+	public static class VMError extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		public VMError(String msg) { super(msg); }
+	}
+
+	private final byte[] code;		// code of the program
+	private final int dataSize;		// number of static variables
+	private final int mainPc;		// start address
+	private int[] heap;
+	private int free;				// next free heap word
+	public long instructions;		// number of instructions executed by the last run
+
+	// Load an object file: "MJ", codeSize, dataSize, mainPc, code
+	public Run(byte[] obj) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(obj));
+		if (in.readByte() != 'M' || in.readByte() != 'J') throw new IOException("not a MicroJava object file");
+		int codeSize = in.readInt();
+		dataSize = in.readInt();
+		mainPc = in.readInt();
+		if (codeSize < 0 || dataSize < 0 || mainPc < 0 || mainPc >= codeSize)
+			throw new IOException("corrupt object file header");
+		code = new byte[codeSize];
+		in.readFully(code);
+	}
+
+	public Run(Path file) throws IOException {
+		this(Files.readAllBytes(file));
+	}
+
+	private int alloc(int words) {
+		if (words < 0) throw new VMError("negative allocation size");
+		if (free + words > heap.length) {
+			if (free + words < 0) throw new VMError("out of memory");
+			heap = Arrays.copyOf(heap, Math.max(2 * heap.length, free + words));
+		}
+		int adr = free;
+		free += words;
+		return adr;
+	}
+
+	// Read an integer (optionally signed) from in
+	public static int readInt(InputStream in) throws IOException {
+		int c = in.read();
+		while (c >= 0 && c <= ' ') c = in.read();
+		boolean neg = c == '-';
+		if (neg) c = in.read();
+		if (c < '0' || c > '9') throw new VMError("number expected in input");
+		int val = 0;
+		while (c >= '0' && c <= '9') { val = 10 * val + (c - '0'); c = in.read(); }
+		return neg ? -val : val;
+	}
+
+	// Print s right-aligned in a field of width characters
+	public static void print(Writer out, String s, int width) throws IOException {
+		for (int i = s.length(); i < width; i++) out.write(' ');
+		out.write(s);
+	}
+
+	// Execute the program from mainPc until main returns
+	public void run(InputStream in, Writer out) throws IOException {
+		// the interpreter state lives in locals so that the JIT keeps it in registers
+		final byte[] code = this.code;
+		int[] data = new int[dataSize];
+		int[] estack = new int[estackSize];
+		int[] mstack = new int[mstackSize];
+		int pc = mainPc, esp = 0, sp = 0, fp = 0;
+		int adr, val, idx, n;
+		long count = 0;
+		heap = new int[heapSize];
+		free = 1;		// address 0 is null
+		mstack[sp++] = -1;	// return address of main
+		try {
+			for (;;) {
+				count++;
+				switch (code[pc++]) {
+					case load:   estack[esp++] = mstack[fp + (code[pc++] & 0xff)]; break;
+					case load0:  estack[esp++] = mstack[fp]; break;
+					case load1:  estack[esp++] = mstack[fp + 1]; break;
+					case load2:  estack[esp++] = mstack[fp + 2]; break;
+					case load3:  estack[esp++] = mstack[fp + 3]; break;
+					case store:  mstack[fp + (code[pc++] & 0xff)] = estack[--esp]; break;
+					case store0: mstack[fp] = estack[--esp]; break;
+					case store1: mstack[fp + 1] = estack[--esp]; break;
+					case store2: mstack[fp + 2] = estack[--esp]; break;
+					case store3: mstack[fp + 3] = estack[--esp]; break;
+					case getstatic:
+						estack[esp++] = data[((code[pc] & 0xff) << 8) | (code[pc+1] & 0xff)]; pc += 2;
+						break;
+					case putstatic:
+						data[((code[pc] & 0xff) << 8) | (code[pc+1] & 0xff)] = estack[--esp]; pc += 2;
+						break;
+					case getfield:
+						adr = estack[esp-1];
+						if (adr == 0) throw new VMError("null reference used");
+						estack[esp-1] = heap[adr + (((code[pc] & 0xff) << 8) | (code[pc+1] & 0xff))]; pc += 2;
+						break;
+					case putfield:
+						val = estack[--esp]; adr = estack[--esp];
+						if (adr == 0) throw new VMError("null reference used");
+						heap[adr + (((code[pc] & 0xff) << 8) | (code[pc+1] & 0xff))] = val; pc += 2;
+						break;
+					case const0: case const1: case const2: case const3: case const4: case const5:
+						estack[esp++] = code[pc-1] - const0; break;
+					case const_m1: estack[esp++] = -1; break;
+					case const_:
+						estack[esp++] = (code[pc] << 24) | ((code[pc+1] & 0xff) << 16)
+							| ((code[pc+2] & 0xff) << 8) | (code[pc+3] & 0xff);
+						pc += 4;
+						break;
+					case add: esp--; estack[esp-1] += estack[esp]; break;
+					case sub: esp--; estack[esp-1] -= estack[esp]; break;
+					case mul: esp--; estack[esp-1] *= estack[esp]; break;
+					case div:
+						esp--;
+						if (estack[esp] == 0) throw new VMError("division by zero");
+						estack[esp-1] /= estack[esp];
+						break;
+					case rem:
+						esp--;
+						if (estack[esp] == 0) throw new VMError("division by zero");
+						estack[esp-1] %= estack[esp];
+						break;
+					case neg: estack[esp-1] = -estack[esp-1]; break;
+					case shl: esp--; estack[esp-1] <<= estack[esp]; break;
+					case shr: esp--; estack[esp-1] >>= estack[esp]; break;
+					case new_:
+						n = ((code[pc] & 0xff) << 8) | (code[pc+1] & 0xff); pc += 2;
+						estack[esp++] = alloc(n);
+						break;
+					case newarray:
+						pc++;	// element size: all elements occupy one word
+						n = estack[esp-1];
+						if (n < 0) throw new VMError("negative array size");
+						adr = alloc(n + 1);
+						heap[adr] = n;
+						estack[esp-1] = adr;
+						break;
+					case aload: case baload:
+						idx = estack[--esp]; adr = estack[esp-1];
+						if (adr == 0) throw new VMError("null reference used");
+						if (idx < 0 || idx >= heap[adr]) throw new VMError("index out of bounds");
+						estack[esp-1] = heap[adr + 1 + idx];
+						break;
+					case astore: case bastore:
+						val = estack[--esp]; idx = estack[--esp]; adr = estack[--esp];
+						if (adr == 0) throw new VMError("null reference used");
+						if (idx < 0 || idx >= heap[adr]) throw new VMError("index out of bounds");
+						heap[adr + 1 + idx] = code[pc-1] == bastore ? (char)val : val;
+						break;
+					case arraylength:
+						adr = estack[esp-1];
+						if (adr == 0) throw new VMError("null reference used");
+						estack[esp-1] = heap[adr];
+						break;
+					case pop: esp--; break;
+					case jmp: pc = ((code[pc] & 0xff) << 8) | (code[pc+1] & 0xff); break;
+					case jeq: esp -= 2; pc = estack[esp] == estack[esp+1] ? ((code[pc] & 0xff) << 8) | (code[pc+1] & 0xff) : pc + 2; break;
+					case jne: esp -= 2; pc = estack[esp] != estack[esp+1] ? ((code[pc] & 0xff) << 8) | (code[pc+1] & 0xff) : pc + 2; break;
+					case jlt: esp -= 2; pc = estack[esp] <  estack[esp+1] ? ((code[pc] & 0xff) << 8) | (code[pc+1] & 0xff) : pc + 2; break;
+					case jle: esp -= 2; pc = estack[esp] <= estack[esp+1] ? ((code[pc] & 0xff) << 8) | (code[pc+1] & 0xff) : pc + 2; break;
+					case jgt: esp -= 2; pc = estack[esp] >  estack[esp+1] ? ((code[pc] & 0xff) << 8) | (code[pc+1] & 0xff) : pc + 2; break;
+					case jge: esp -= 2; pc = estack[esp] >= estack[esp+1] ? ((code[pc] & 0xff) << 8) | (code[pc+1] & 0xff) : pc + 2; break;
+					case call:
+						mstack[sp++] = pc + 2;
+						pc = ((code[pc] & 0xff) << 8) | (code[pc+1] & 0xff);
+						break;
+					case return_:
+						pc = mstack[--sp];
+						if (pc < 0) return;
+						break;
+					case enter:
+						n = code[pc++] & 0xff;		// number of parameters
+						val = code[pc++] & 0xff;	// number of locals (incl. parameters)
+						mstack[sp++] = fp;
+						fp = sp;
+						sp += val;
+						if (sp > mstackSize) throw new VMError("stack overflow");
+						Arrays.fill(mstack, fp, sp, 0);
+						for (int i = n - 1; i >= 0; i--) mstack[fp + i] = estack[--esp];
+						break;
+					case exit:
+						sp = fp;
+						fp = mstack[--sp];
+						break;
+					case read: estack[esp++] = readInt(in); break;
+					case print:
+						n = estack[--esp]; val = estack[--esp];
+						print(out, Integer.toString(val), n);
+						break;
+					case bread: estack[esp++] = in.read(); break;
+					case bprint:
+						n = estack[--esp]; val = estack[--esp];
+						print(out, String.valueOf((char)val), n);
+						break;
+					case trap:
+						throw new VMError("trap " + (code[pc] & 0xff) + " at " + (pc - 1));
+					default:
+						throw new VMError("illegal instruction " + code[pc-1] + " at " + (pc - 1));
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new VMError("stack overflow or illegal address at " + (pc - 1));
+		} finally {
+			instructions = count;
+			out.flush();
+		}
+	}
+
+	public static void main(String args[]) {
+		boolean jit = args.length > 1 && args[0].equals("-jit");
+		if (args.length > (jit ? 1 : 0)) {
+			String obj = args[jit ? 1 : 0];
+			InputStream in = new BufferedInputStream(System.in);
+			Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+			try {
+				if (jit) {
+					new JvmTranslator(Paths.get(obj)).load().run(in, out);
+					System.out.println();
+				} else {
+					Run vm = new Run(Paths.get(obj));
+					vm.run(in, out);
+					System.out.println();
+					System.out.println("-- " + vm.instructions + " instructions executed");
+				}
+			} catch (VMError e) {
+				System.out.println();
+				System.out.println("-- runtime error: " + e.getMessage());
+			} catch (IOException e) {
+				System.out.println("-- cannot load object file " + obj + ": " + e.getMessage());
+			}
+		} else System.out.println("-- synopsis: java MJ.Run [-jit] <objFileName>");
+	}
+
+}
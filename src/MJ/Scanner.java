@@ -3,10 +3,14 @@
 */
 package MJ;
 import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.Arrays;
 
 public class Scanner {
-	private static final char eofCh = '\u0080';
+	private static final char eofCh = '\uffff';	// ch at the end; the end itself is pos == len
 	private static final char eol = '\n';
 	private static final int  // token codes
 		none      = 0,
@@ -54,38 +58,122 @@ public class Scanner {
 		class_, else_, final_, if_, new_, print_,
 		program_, read_, return_, void_, while_
 	};
+	private static final int keyHash[] = new int[16];	// perfect hash of key: slot -> index in key
 
-	private static char ch;			// lookahead character
-	public  static int col;			// current column
-	public  static int line;		// current line
-	private static int pos;			// current position from start of source file
-	private static Reader in;  	// source file reader
-	private static char[] lex;	// current lexeme (token string)
+	static {
+		Arrays.fill(keyHash, -1);
+		for (int i = 0; i < key.length; i++) {
+			int h = keyHash(key[i].charAt(0), key[i].length());
+			if (keyHash[h] >= 0) throw new Error("keyword hash collision: " + key[i]);
+			keyHash[h] = i;
+		}
+	}
+
+	// Slot of a keyword in keyHash; unique for all keywords
+	private static int keyHash(char first, int len) {
+		return (2 * first + len) & 15;
+	}
+
+	private char ch;			// lookahead character
+	public  int col;			// current column
+	public  int line;			// current line
+	private int pos;			// position of ch in buf (len at eof)
+	private char[] buf;		// whole source text
+	private int len;			// number of characters in buf
+	public  final NameTable names;	// identifiers of this compilation
+	public  Diagnostics diag = new Diagnostics(Diagnostics.console);	// lexical errors go here
 
 	//----- ch = next input character
-	private static void nextCh() {
-		try {
-			ch = (char)in.read(); col++; pos++;
+	private void nextCh() {
+		if (++pos < len) {
+			ch = buf[pos]; col++;
 			if (ch == eol) {line++; col = 0;}
-			else if (ch == '\uffff') ch = eofCh;
-		} catch (IOException e) {
-			ch = eofCh;
+		} else {
+			ch = eofCh; pos = len;
 		}
 	}
 
-	//--------- Initialize scanner
-	public static void init(Reader r) {
-		in = new BufferedReader(r);
-		lex = new char[64];
-		line = 1; col = 0;
+	//--------- Initialize scanner; every compilation uses its own instance
+	private void init(char[] src, int n) {
+		buf = src; len = n;
+		line = 1; col = 0; pos = -1;
 		nextCh();
 	}
 
-	//---------- Return next input token
-	public static Token next() {
+	// Scan the first len characters of src
+	public Scanner(char[] src, int len) {
+		names = new NameTable();
+		init(src, len);
+	}
+
+	// Scan the source of s again from pos, the position of a token at line and col,
+	// with the same names (see Parser.Methods)
+	Scanner(Scanner s, int pos, int line, int col) {
+		names = s.names;
+		buf = s.buf; len = s.len;
+		this.pos = pos - 1; this.line = line; this.col = col - 1;
+		nextCh();
+	}
+
+	// Read the whole source in blocks; a read error is passed on to the caller
+	public Scanner(Reader r) throws IOException {
+		char[] b = new char[8192];
+		int n = 0;
+		for (int k; (k = r.read(b, n, b.length - n)) >= 0; ) {
+			n += k;
+			if (n == b.length) b = Arrays.copyOf(b, 2 * n);
+		}
+		names = new NameTable();
+		init(b, n);
+	}
+
+	// Map the source file and decode it (UTF-8) in one go
+	public Scanner(Path file) throws IOException {
+		char[] src = decode(file);
+		names = new NameTable();
+		init(src, src.length);
+	}
+
+	static char[] decode(Path file) throws IOException {
+		try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+			CharBuffer cb = StandardCharsets.UTF_8.decode(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+			if (cb.hasArray() && cb.arrayOffset() == 0 && cb.position() == 0 && cb.limit() == cb.array().length)
+				return cb.array();
+			char[] a = new char[cb.remaining()];
+			cb.get(a);
+			return a;
+		}
+	}
+
+	//---------- Report a lexical error at token
+	void error(Token token, String msg) {
+		diag.report(Diagnostics.lexical, token.line, token.col, msg);
+	}
+
+	//---------- Release the scanner after parsing
+	public void close() {}
+
+	//---------- Keep the names still while the name table is frozen (see PipelinedScanner)
+	void hold() {}
+	void release() {}
+
+	//---------- Return next input token in a new Token object
+	public Token next() {
+		Token token = new Token();
+		next(token);
+		return token;
+	}
+
+	//---------- Read next input token into the given Token object (no allocation)
+	public void next(Token token) {
+		scan(token);
+	}
+
+	//---------- Scan one token; not overridden, so subclasses can reuse it
+	final void scan(Token token) {
 		while(ch <= ' ') nextCh();          // Skip Blanks
-                Token token = new Token();          // Creates New Token
                 token.line = line; token.col = col; // Inits char locale
+                token.pos = pos; token.len = 0;
                 
                 switch(ch){
                     // Alphabet
@@ -108,7 +196,10 @@ public class Scanner {
                     case ';': nextCh(); token.kind = semicolon; break;
                     case '.': nextCh(); token.kind = period; break;
                     case ',': nextCh(); token.kind = comma; break;
-                    case eofCh: token.kind = eof; break;
+                    case eofCh:
+                        if(pos < len){ nextCh(); token.kind = none; } // a U+FFFF in the source
+                        else token.kind = eof;
+                        break;
                     // Comparison
                     case '=':
                         nextCh();
@@ -141,8 +232,8 @@ public class Scanner {
                         nextCh(); 
                         if(ch == '/'){
                             do nextCh();
-                            while(ch != '\n' && ch != eofCh);
-                            token = next();
+                            while(ch != '\n' && pos < len);
+                            scan(token);
                         } else { token.kind = slash; } 
                         break;
                     // Brackets / Paraenthesis / Braces
@@ -153,57 +244,74 @@ public class Scanner {
                     case '[': nextCh(); token.kind = lbrack; break;
                     case ']': nextCh(); token.kind = rbrack; break;
                     // Backslash
-                    case '\"': readCharCon(token); break;
+                    case '\'': readCharCon(token); break;
                     // Default
                     default: nextCh(); token.kind = none; break;
                 } // END OF switch 
-            return token;   
-	} // END OF next
+	} // END OF scan
 
-        private static void readName(Token token) {
-            // Build The String
-            StringBuilder sb = new StringBuilder(); 
-            while(Character.isLetterOrDigit(ch)){ sb.append(ch); nextCh(); };
+        private void readName(Token token) {
+            // Identifier text is the slice buf[start..pos[ of the source
+            int start = pos;
+            while(Character.isLetterOrDigit(ch)) nextCh();
+            token.len = pos - start;
             // Checks If String Is A Keyword
-            int index = Arrays.binarySearch(key, sb.toString());
+            int index = findKey(start, pos);
             
             // If it isn't a keyword: kind == identifer
-            if(index < 0) token.kind = ident;
+            if(index < 0) {
+                token.kind = ident;
+                token.id = names.intern(buf, start, pos);
+                token.string = names.name(token.id);
+            }
             // else if it is a keyword: kind == keyword
             else token.kind = keyVal[index];
             
         } // END OF readName
         
-        private static void readNumber(Token token) {
-            // Build The Number
-            StringBuilder sb = new StringBuilder();
-            while(Character.isDigit(ch)){  sb.append(ch); nextCh(); }
-                
-            // Convert String to integer
-            try{
-                token.val = Integer.parseInt(sb.toString());
-            } catch (NumberFormatException e){
-                System.out.println("Overflow");
+        // Index of the keyword buf[start..end[ in key, or -1
+        private int findKey(int start, int end) {
+            int n = end - start;
+            if(n < 2 || n > 7) return -1;
+            int index = keyHash[keyHash(buf[start], n)];
+            if(index < 0 || key[index].length() != n) return -1;
+            String k = key[index];
+            for(int i = 0; i < n; i++) if(k.charAt(i) != buf[start + i]) return -1;
+            return index;
+        } // END OF findKey
+        
+        private void readNumber(Token token) {
+            // Build The Number digit by digit
+            long val = 0;
+            while(ch >= '0' && ch <= '9'){
+                if(val <= Integer.MAX_VALUE) val = 10 * val + (ch - '0');
+                nextCh();
             }
+            if(val > Integer.MAX_VALUE){
+                token.val = 0;
+                error(token, "Overflow");
+            } else token.val = (int)val;
             token.kind = number;
             
         } // END OF readNumber
         
-        private static void readCharCon(Token token){
-            // Build The StringnextCh()
+        private void readCharCon(Token token){
+            // The constant is the slice buf[start..pos[ between the quotes
             nextCh();
-            StringBuilder sb = new StringBuilder();
-            while(ch != '"' && ch != eofCh && ch != eol){ sb.append(ch); nextCh(); };
+            int start = pos;
+            while(ch != '\'' && ch != eol && pos < len) nextCh();
+            int n = pos - start;
             if(ch == '\'') nextCh();
-            if(sb.length() == 1){
-                token.val = sb.charAt(0);
+            token.val = 0;
+            if(n == 1){
+                token.val = buf[start];
             }
-            else if(sb.length() == 2 && sb.charAt(0) == '\\'){
-                if(sb.charAt(1) == 'n') token.val = '\n';
-                else if(sb.charAt(1) == 'r') token.val = '\r';
-                else if(sb.charAt(1) == 't') token.val = '\t';
+            else if(n == 2 && buf[start] == '\\'){
+                if(buf[start + 1] == 'n') token.val = '\n';
+                else if(buf[start + 1] == 'r') token.val = '\r';
+                else if(buf[start + 1] == 't') token.val = '\t';
             } else {
-                System.out.println("Illegal Character Constants");
+                error(token, "Illegal Character Constants");
             }
             token.kind = charCon;
         } // END OF readCharCon
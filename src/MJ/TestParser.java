@@ -4,11 +4,16 @@
    Compile with
      javac MJ\Scanner.java MJ\Parser.java MJ\TestParser.java
    Run with
-     java MJ.TestParser <inputFileName>
+     java MJ.TestParser <inputFileName> [-l] [-dump] [-cache <dir>]
+   -l lists the generated code
+   -dump prints the symbol table
+   -cache takes the result from the compilation cache in <dir> if the
+   source is unchanged
 */
 package MJ;
 
 import java.io.*;
+import java.nio.file.*;
 
 public class TestParser {
 
@@ -17,14 +22,38 @@ public class TestParser {
 		Token t;
 		if (args.length > 0) {
 			String source = args[0];
+			boolean list = false, dump = false;
+			String cacheDir = null;
+			for (int i = 1; i < args.length; i++) {
+				if (args[i].equals("-l")) list = true;
+				else if (args[i].equals("-dump")) dump = true;
+				else if (args[i].equals("-cache") && i + 1 < args.length) cacheDir = args[++i];
+			}
 			try {
-				Scanner.init(new InputStreamReader(new FileInputStream(source)));
-				Parser.parse();
-				System.out.println(Parser.errors + " errors detected");
+				if (cacheDir != null) {
+					CompileCache cache = new CompileCache(Paths.get(cacheDir), CompileCache.defaultMaxBytes);
+					CompileCache.Entry e = cache.compile(Files.readAllBytes(Paths.get(source)), Diagnostics.console, 0);
+					System.out.println(e.errors + " errors detected" + (e.cached ? " (cached)" : ""));
+					if (list && e.obj != null) {
+						Writer w = new BufferedWriter(new OutputStreamWriter(System.out));
+						e.list(w);
+						w.flush();
+					}
+					return;
+				}
+				Parser parser = new Parser(new Scanner(Paths.get(source)));
+				if (dump) parser.symbolDump = System.out;
+				parser.parse();
+				System.out.println(parser.errors + " errors detected");
+				if (list) {
+					Writer w = new BufferedWriter(new OutputStreamWriter(System.out));
+					parser.code.list(w);
+					w.flush();
+				}
 			} catch (IOException e) {
 				System.out.println("-- cannot open input file " + source);
 			}
-		} else System.out.println("-- synopsis: java MJ.TestParser <inputfileName>");
+		} else System.out.println("-- synopsis: java MJ.TestParser <inputfileName> [-l] [-dump] [-cache <dir>]");
 	}
 
 }
\ No newline at end of file
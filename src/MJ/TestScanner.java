@@ -9,6 +9,7 @@
 package MJ;
 
 import java.io.*;
+import java.nio.file.Paths;
 
 public class TestScanner {
 	private static final int  // token codes
@@ -96,9 +97,9 @@ public class TestScanner {
 		if (args.length > 0) {
 			String source = args[0];
 			try {
-				Scanner.init(new InputStreamReader(new FileInputStream(source)));
+				Scanner scanner = new Scanner(Paths.get(source));
 				do {
-					t = Scanner.next();
+					t = scanner.next();
 					System.out.print("line " + t.line + ", col " + t.col + ": " + tokenName[t.kind]);
 					switch (t.kind) {
 						case ident:   System.out.println(t.string); break;
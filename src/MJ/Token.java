@@ -8,5 +8,8 @@ public class Token {
 	public int line;		// token line
 	public int col;			// token column
 	public int val;			// token value (for number and charConst)
-	public String string;	// token string
+	public int pos;			// token text starts at this position of the source
+	public int len;			// length of the token text (for ident)
+	public int id;			// interned name (for ident), see NameTable
+	public String string;	// token string (for ident)
 }
\ No newline at end of file
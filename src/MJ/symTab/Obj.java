@@ -2,6 +2,10 @@
    ==============================
 Every named object in a program is stored in an Obj node.
 Every scope has a list of objects declared in this scope.
+The node is kept small, as there is one per declared name: the name is
+only held as its interned id (Tab.name returns the text), and the kind,
+level and number of parameters are packed into 4 bytes. With compressed
+references a node takes 40 bytes.
 */
 package MJ.SymTab;
 
@@ -12,17 +16,17 @@ public class Obj {
 		Type = 2,
 		Meth = 3,
 		Prog = 4;
-	public int    kind;		// Con, Var, Type, Meth, Prog
-	public String name;		// object name
+	public byte   kind;		// Con, Var, Type, Meth, Prog
+	public byte   level;  // Var: declaration level
+	public short  nPars;  // Meth: number of parameters
+	public int    id;		// interned object name (see MJ.NameTable); -1: none
 	public Struct type;	 	// object type
 	public int    val;    // Con: value
 	public int    adr;    // Var, Math: address
-	public int    level;  // Var: declaration level
-	public int    nPars;  // Meth: number of parameters
 	public Obj    locals; // Meth: parameters and local objects
 	public Obj    next;		// next local object in this scope
 
-	public Obj(int kind, String name, Struct type) {
-		this.kind = kind; this.name = name; this.type = type;
+	public Obj(int kind, int id, Struct type) {
+		this.kind = (byte)kind; this.id = id; this.type = type;
 	}
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 /* MicroJava Symbol Table Scopes (HM 06-12-28)
    =============================
+The objects of a scope are kept in declaration order in the list locals
+and, for lookup, in a hash index on their interned name id.
 */
 package MJ.SymTab;
 
@@ -7,4 +9,36 @@ public class Scope {
 	public Scope outer;		// to outer scope
 	public Obj   locals;	// to local variables of this scope
 	public int   nVars;     // number of variables in this scope
-}
\ No newline at end of file
+	private Obj   last;		// last object in locals
+	private Obj[] index = new Obj[8];	// objects hashed on their id (open addressing)
+	private int   nObjs;	// number of objects in index
+
+	// Object with the given name id in this scope, or null
+	public Obj find(int id) {
+		int mask = index.length - 1;
+		for (int i = id & mask; index[i] != null; i = (i + 1) & mask)
+			if (index[i].id == id) return index[i];
+		return null;
+	}
+
+	// Append o to locals and enter it into the index (the first object with a name wins)
+	public void add(Obj o) {
+		if (last == null) locals = o; else last.next = o;
+		last = o;
+		if (find(o.id) != null) return;
+		if (2 * (nObjs + 1) > index.length) {
+			Obj[] old = index;
+			index = new Obj[2 * old.length];
+			for (Obj p: old) if (p != null) enter(p);
+		}
+		enter(o);
+		nObjs++;
+	}
+
+	private void enter(Obj o) {
+		int mask = index.length - 1;
+		int i = o.id & mask;
+		while (index[i] != null) i = (i + 1) & mask;
+		index[i] = o;
+	}
+}
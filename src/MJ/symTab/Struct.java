@@ -1,6 +1,10 @@
 /* MicroJava Type Structures  (HM 06-12-28)
    =========================
 A type structure stores the type attributes of a declared object.
+Every type exists only once: classes get one Struct per declaration and
+array types are made by arrayOf. So types are equal if they are the same
+Struct. The predeclared types are shared by all compilations; they are
+made with their array types, so arrayOf never locks them.
 */
 package MJ.SymTab;
 
@@ -15,38 +19,49 @@ public class Struct {
 	public Struct elemType; // Arr: element type
 	public int    nFields;  // Class: number of fields
 	public Obj    fields;   // Class: fields
+	public Scope  members;  // Class: scope of the fields, for hashed lookup
+	private volatile Struct arrayType;	// the array type with this element type, once it is made
 
 	public Struct(int kind) {
 		this.kind = kind;
 	}
 
-	public Struct(int kind, Struct elemType) {
+	// A predeclared type (see Tab), together with its array type
+	public static Struct predeclared(int kind) {
+		Struct s = new Struct(kind);
+		s.arrayType = new Struct(Arr, s);
+		return s;
+	}
+
+	private Struct(int kind, Struct elemType) {
 		this.kind = kind; this.elemType = elemType;
 	}
 
+	// The array type with element type elemType; made on first use, shared afterwards
+	public static Struct arrayOf(Struct elemType) {
+		Struct a = elemType.arrayType;
+		if (a != null) return a;
+		synchronized (elemType) { // method bodies may be compiled in parallel
+			if (elemType.arrayType == null) elemType.arrayType = new Struct(Arr, elemType);
+			return elemType.arrayType;
+		}
+	}
+
 	// Checks if this is a reference type
 	public boolean isRefType() {
 		return kind == Class || kind == Arr;
 	}
 
-	// Checks if two types are equal
-	public boolean equals(Struct other) {
-		if (kind == Arr)
-			return other.kind == Arr && other.elemType == elemType;
-		else
-			return other == this;
-	}
-
 	// Checks if two types are compatible (e.g. in a comparison)
 	public boolean compatibleWith(Struct other) {
-		return this.equals(other)
+		return this == other
 			||	this == Tab.nullType && other.isRefType()
 			||	other == Tab.nullType && this.isRefType();
 	}
 
 	// Checks if an object with type "this" can be assigned to an object with type "dest"
 	public boolean assignableTo(Struct dest) {
-		return this.equals(dest)
+		return this == dest
 			||	this == Tab.nullType && dest.isRefType()
 			||  this.kind == Arr && dest.kind == Arr && dest.elemType == Tab.noType;
 	}
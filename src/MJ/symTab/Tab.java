@@ -4,83 +4,117 @@ This class manages scopes and inserts and retrieves objects.
 */
 package MJ.SymTab;
 
+import java.io.IOException;
 import java.lang.*;
 import MJ.*;
 
 public class Tab {
-	public static Scope curScope;	// current scope
-	public static int   curLevel;	// nesting level of current scope
-
-	public static Struct intType;	// predefined types
-	public static Struct charType;
-	public static Struct nullType;
-	public static Struct noType;
-	public static Obj chrObj;		// predefined objects
-	public static Obj ordObj;
-	public static Obj lenObj;
-	public static Obj noObj;
-
-	private static void error(String msg) {
-		Parser.error(msg);
+	// predefined types; they are never modified and shared by all compilations
+	public static final Struct intType  = Struct.predeclared(Struct.Int);
+	public static final Struct charType = Struct.predeclared(Struct.Char);
+	public static final Struct nullType = new Struct(Struct.Class);
+	public static final Struct noType   = Struct.predeclared(Struct.None);
+	public static final Obj    noObj    = new Obj(Obj.Var, -1, noType);
+
+	private final Parser parser;	// receives error messages
+	private final NameTable names;	// interned identifiers of this compilation
+	public Scope curScope;	// current scope
+	public int   curLevel;	// nesting level of current scope
+
+	public Obj chrObj;		// predefined objects
+	public Obj ordObj;
+	public Obj lenObj;
+	public int lastMethod = Integer.MAX_VALUE;	// methods numbered higher are not yet declared (see reopen)
+
+	public Tab(Parser parser, NameTable names) {
+		this.parser = parser;
+		this.names = names;
+	}
+
+	private void error(String msg) {
+		parser.error(msg);
 	}
 
 	//------------------ scope management ---------------------
 
-	public static void openScope() {
+	public void openScope() {
 		Scope scope = new Scope();
                 scope.outer = curScope;
                 curScope = scope;
                 curLevel++;
+                if(curLevel > parser.metrics.maxDepth) parser.metrics.maxDepth = curLevel;
 	}
 
-	public static void closeScope() {
+	public void closeScope() {
 		curScope = curScope.outer;
                 curLevel--;
 	}
 
+	// Continue in the method scope of the symbol table global, for compiling
+	// the body of method number lastMethod on another thread. All methods of
+	// global are declared and numbered (adr = number) already; the method may
+	// only see itself and the methods before it. The outer scopes are shared
+	// and must not be changed.
+	public void reopen(Tab global, Scope scope, int lastMethod) {
+		curScope = scope;
+		curLevel = 1;
+		chrObj = global.chrObj; ordObj = global.ordObj; lenObj = global.lenObj;
+		this.lastMethod = lastMethod;
+	}
+
 	//------------- Object insertion and retrieval --------------
 
 	// Create a new object with the given kind, name and type
 	// and insert it into the top scope.
-	public static Obj insert(int kind, String name, Struct type) {
-            Obj object = new Obj(kind, name, type);
+	public Obj insert(int kind, String name, Struct type) {
+            return insert(kind, names.intern(name), type);
+	}
+
+	// Same, for a name that is already interned as id
+	public Obj insert(int kind, int id, Struct type) {
+            Obj object = new Obj(kind, id, type);
+            parser.metrics.inserts++;
             if(kind == Obj.Var){
                 object.adr = curScope.nVars;
                 curScope.nVars++;
-                object.level = curLevel;
+                object.level = (byte)curLevel;
             }
-            Obj p = curScope.locals, last = null;
-            while(p != null){
-                if(p.name.equals(name)) error(name + "declared twice");
-                last = p; p = p.next;
-            }
-            if(last == null) curScope.locals = object;
-            else last.next = object;
+            if(curScope.find(id) != null) error(names.name(id) + " declared twice");
+            curScope.add(object);
             return object;
 	}
 
-	// Retrieve the object with the given name from the top scope
-	public static Obj find(String name) {
+	// Retrieve the object with the given name id from the top scope
+	public Obj find(int id) {
+            parser.metrics.lookups++;
             for(Scope s = curScope; s != null; s = s.outer){
-                for(Obj p = s.locals; p != null; p = p.next){
-                    if(p.name.equals(name)) return p;
-                }
+                Obj p = s.find(id);
+                if(p != null && (p.kind != Obj.Meth || p.adr <= lastMethod)) return p;
             }
-            error(name + " is undeclared!");
+            error(names.name(id) + " is undeclared!");
             return noObj;
 	}
 
-	// Retrieve a class field with the given name from the fields of "type"
-	public static Obj findField(String name, Struct type) {
+	// Retrieve a class field with the given name id from the fields of "type"
+	public Obj findField(int id, Struct type) {
+            if(type.members != null){
+                Obj o = type.members.find(id);
+                return o != null ? o : noObj;
+            }
             for(Obj o = type.fields; o != null; o = o.next){
-                if(o.name.equals(name)) return o;
+                if(o.id == id) return o;
             }
             return noObj;
 	}
 
+	// Name of o
+	public String name(Obj o) {
+		return o.id < 0 ? "???" : names.name(o.id);
+	}
+
 	//---------------- methods for dumping the symbol table --------------
 
-	public static void dumpStruct(Struct type) {
+	public void dumpStruct(Struct type, Appendable out) throws IOException {
 		String kind;
 		switch (type.kind) {
 			case Struct.Int:  kind = "Int  "; break;
@@ -89,20 +123,20 @@ public class Tab {
 			case Struct.Class:kind = "Class"; break;
 			default: kind = "None";
 		}
-		System.out.print(kind+" ");
+		out.append(kind+" ");
 		if (type.kind == Struct.Arr) {
-			System.out.print(type.nFields + " (");
-			dumpStruct(type.elemType);
-			System.out.print(")");
+			out.append(type.nFields + " (");
+			dumpStruct(type.elemType, out);
+			out.append(")");
 		}
 		if (type.kind == Struct.Class) {
-			System.out.println(type.nFields + "<<");
-			for (Obj o = type.fields; o != null; o = o.next) dumpObj(o);
-			System.out.print(">>");
+			out.append(type.nFields + "<<\n");
+			for (Obj o = type.fields; o != null; o = o.next) dumpObj(o, out);
+			out.append(">>");
 		}
 	}
 
-	public static void dumpObj(Obj o) {
+	public void dumpObj(Obj o, Appendable out) throws IOException {
 		String kind;
 		switch (o.kind) {
 			case Obj.Con:  kind = "Con "; break;
@@ -111,45 +145,38 @@ public class Tab {
 			case Obj.Meth: kind = "Meth"; break;
 			default: kind = "None";
 		}
-		System.out.print(kind+" "+o.name+" "+o.val+" "+o.adr+" "+o.level+" "+o.nPars+" (");
-		dumpStruct(o.type);
-		System.out.println(")");
+		out.append(kind+" "+name(o)+" "+o.val+" "+o.adr+" "+o.level+" "+o.nPars+" (");
+		dumpStruct(o.type, out);
+		out.append(")\n");
 	}
 
-	public static void dumpScope(Obj head) {
-		System.out.println("--------------");
-		for (Obj o = head; o != null; o = o.next) dumpObj(o);
+	public void dumpScope(Obj head, Appendable out) throws IOException {
+		out.append("--------------\n");
+		for (Obj o = head; o != null; o = o.next) dumpObj(o, out);
 		for (Obj o = head; o != null; o = o.next)
-			if (o.kind == Obj.Meth || o.kind == Obj.Prog) dumpScope(o.locals);
+			if (o.kind == Obj.Meth || o.kind == Obj.Prog) dumpScope(o.locals, out);
 	}
 
 	//-------------- initialization of the symbol table ------------
 
-	public static void init() {  // build the universe
+	public void init() {  // build the universe
 		Obj o;
 		curScope = new Scope();
 		curScope.outer = null;
 		curLevel = -1;
 
-		// create predeclared types
-		intType = new Struct(Struct.Int);
-		charType = new Struct(Struct.Char);
-		nullType = new Struct(Struct.Class);
-		noType = new Struct(Struct.None);
-		noObj = new Obj(Obj.Var, "???", noType);
-
 		// create predeclared objects
 		insert(Obj.Type, "int", intType);
 		insert(Obj.Type, "char", charType);
 		insert(Obj.Con, "null", nullType);
 		chrObj = insert(Obj.Meth, "chr", charType);
-		chrObj.locals = new Obj(Obj.Var, "i", intType);
+		chrObj.locals = new Obj(Obj.Var, names.intern("i"), intType);
 		chrObj.nPars = 1;
 		ordObj = insert(Obj.Meth, "ord", intType);
-		ordObj.locals = new Obj(Obj.Var, "ch", charType);
+		ordObj.locals = new Obj(Obj.Var, names.intern("ch"), charType);
 		ordObj.nPars = 1;
 		lenObj = insert(Obj.Meth, "len", intType);
-		lenObj.locals = new Obj(Obj.Var, "a", new Struct(Struct.Arr, noType));
+		lenObj.locals = new Obj(Obj.Var, names.intern("a"), Struct.arrayOf(noType));
 		lenObj.nPars = 1;
 	}
 }
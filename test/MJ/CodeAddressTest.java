@@ -0,0 +1,39 @@
+/* Code addresses beyond 0xFFFF
+   ============================
+Jumps and calls encode their target in 2 bytes, so a program whose code
+grows past 64K must be rejected with a limit error in every compilation
+mode instead of being written with truncated addresses.
+*/
+package MJ;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CodeAddressTest {
+
+	// A program in which main calls f, which lies behind about 66K of filler code
+	private static String bigProgram() {
+		StringBuilder sb = new StringBuilder("program Big\n{\n\tvoid fill() int x; {\n");
+		for (int i = 0; i < 11000; i++) sb.append("\t\tx = 100000;\n");	// const + store: 6 bytes
+		sb.append("\t}\n\tint f() { return 42; }\n\tvoid main() { print(f()); }\n}\n");
+		return sb.toString();
+	}
+
+	private static String compile(String src, boolean parallel, boolean ir) {
+		StringBuilder messages = new StringBuilder();
+		Parser parser = new Parser(new Scanner(src.toCharArray(), src.length()), new Diagnostics(Diagnostics.text(messages)));
+		parser.parallel = parallel;
+		parser.ir = ir;
+		parser.parse();
+		assertTrue("errors expected", parser.errors > 0);
+		return messages.toString();
+	}
+
+	@Test
+	public void callPast64K() {
+		String src = bigProgram();
+		assertTrue(compile(src, false, false).contains("program too large"));
+		assertTrue(compile(src, false, true).contains("program too large"));
+		assertTrue(compile(src, true, false).contains("program too large"));
+	}
+}
@@ -0,0 +1,138 @@
+/* Compilation cache
+   =================
+Hits return the stored object file and replay the stored diagnostics;
+other options, damaged entries and entries whose counts do not fit into
+the file are misses that compile the source again. The cache never grows
+beyond its size limit.
+*/
+package MJ;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class CompileCacheTest {
+	private static final byte[] good = bytes("program P { void main() int i; { i = 6; print(i * 7); } }");
+	private static final byte[] bad = bytes("program P { void main() { x = 1; print(y); } }");
+
+	private Path dir;
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Before
+	public void open() throws IOException {
+		dir = Files.createTempDirectory("mjcache");
+	}
+
+	@After
+	public void delete() throws IOException {
+		try (Stream<Path> s = Files.list(dir)) {
+			for (Path f: s.collect(Collectors.toList())) Files.delete(f);
+		}
+		Files.delete(dir);
+	}
+
+	private List<Path> entries() throws IOException {
+		try (Stream<Path> s = Files.list(dir)) {
+			return s.filter(f -> f.toString().endsWith(".entry")).collect(Collectors.toList());
+		}
+	}
+
+	@Test
+	public void missThenHit() throws IOException {
+		CompileCache cache = new CompileCache(dir, CompileCache.defaultMaxBytes);
+		CompileCache.Entry first = cache.compile(good, Diagnostics.none, 0);
+		assertFalse(first.cached);
+		assertEquals(0, first.errors);
+		CompileCache.Entry second = cache.compile(good, Diagnostics.none, 0);
+		assertTrue(second.cached);
+		assertTrue(Arrays.equals(first.obj, second.obj));
+		assertEquals("42", Programs.run(second.obj, ""));
+		assertTrue(new CompileCache(dir, CompileCache.defaultMaxBytes).compile(good, Diagnostics.none, 0).cached);
+	}
+
+	@Test
+	public void diagnosticsAreReplayed() throws IOException {
+		CompileCache cache = new CompileCache(dir, CompileCache.defaultMaxBytes);
+		StringBuilder compiled = new StringBuilder(), replayed = new StringBuilder();
+		CompileCache.Entry first = cache.compile(bad, Diagnostics.text(compiled), 0);
+		CompileCache.Entry second = cache.compile(bad, Diagnostics.text(replayed), 0);
+		assertTrue(second.cached);
+		assertTrue(first.errors > 0);
+		assertEquals(first.errors, second.errors);
+		assertNull(second.obj);
+		assertTrue(compiled.length() > 0);
+		assertEquals(compiled.toString(), replayed.toString());
+	}
+
+	@Test
+	public void otherOptionsMiss() throws IOException {
+		CompileCache cache = new CompileCache(dir, CompileCache.defaultMaxBytes);
+		cache.compile(good, Diagnostics.none, 0);
+		assertFalse(cache.compile(good, Diagnostics.none, 10).cached);
+		cache.ir = true;
+		assertFalse(cache.compile(good, Diagnostics.none, 0).cached);
+		assertTrue(cache.compile(good, Diagnostics.none, 0).cached);
+		assertEquals(3, entries().size());
+	}
+
+	// Compile good, let damage change its entry and check that the next compilation misses
+	private void damaged(java.util.function.Function<byte[], byte[]> damage) throws IOException {
+		CompileCache cache = new CompileCache(dir, CompileCache.defaultMaxBytes);
+		byte[] obj = cache.compile(good, Diagnostics.none, 0).obj;
+		Path f = entries().get(0);
+		Files.write(f, damage.apply(Files.readAllBytes(f)));
+		CompileCache.Entry e = cache.compile(good, Diagnostics.none, 0);
+		assertFalse(e.cached);
+		assertTrue(Arrays.equals(obj, e.obj));
+		assertTrue(cache.compile(good, Diagnostics.none, 0).cached);	// written again
+	}
+
+	@Test
+	public void truncatedEntryMisses() throws IOException {
+		damaged(b -> Arrays.copyOf(b, b.length - 3));
+	}
+
+	@Test
+	public void wrongMagicMisses() throws IOException {
+		damaged(b -> { b[0] ^= 1; return b; });
+	}
+
+	@Test
+	public void hugeLengthMisses() throws IOException {
+		damaged(b -> { ByteBuffer.wrap(b).putInt(8, Integer.MAX_VALUE - 8); return b; });
+		damaged(b -> { ByteBuffer.wrap(b).putInt(8, -2); return b; });
+	}
+
+	@Test
+	public void hugeDiagnosticCountMisses() throws IOException {
+		damaged(b -> { ByteBuffer.wrap(b).putInt(b.length - 4, Integer.MAX_VALUE); return b; });
+	}
+
+	@Test
+	public void trailingBytesMiss() throws IOException {
+		damaged(b -> Arrays.copyOf(b, b.length + 1));
+	}
+
+	@Test
+	public void sizeLimit() throws IOException {
+		CompileCache cache = new CompileCache(dir, CompileCache.defaultMaxBytes);
+		cache.compile(good, Diagnostics.none, 0);
+		long entry = Files.size(entries().get(0));
+		delete();
+		dir = Files.createDirectory(dir);
+		cache = new CompileCache(dir, 2 * entry + entry / 2);
+		for (int i = 1; i <= 5; i++) cache.compile(good, Diagnostics.none, i);
+		assertEquals(2, entries().size());
+		assertTrue(cache.compile(good, Diagnostics.none, 5).cached);	// most recent ones stay
+		assertTrue(cache.compile(good, Diagnostics.none, 4).cached);
+		assertFalse(cache.compile(good, Diagnostics.none, 1).cached);
+	}
+}
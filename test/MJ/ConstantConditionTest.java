@@ -0,0 +1,68 @@
+/* Constant conditions and unreachable statements
+   ==============================================
+Only the arm of an if that runs gets code, a while whose condition is
+never true gets none, and statements after a return get none. The dead
+code is still checked. A constant on the left of a compare with a
+variable must still compare in the right order.
+*/
+package MJ;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ConstantConditionTest {
+
+	private static String program(String body) {
+		return "program K final int debug = 0; int g; {\n\tvoid main() int x; {\n\t\tread(x);\n" + body + "\t}\n}\n";
+	}
+
+	// src and the same program without its dead code must print the same and be the same size
+	private static String same(String src, String live, String input) {
+		String out = Programs.check(src, input);
+		assertEquals(Programs.check(live, input), out);
+		for (String mode: new String[] {"default", "plain"})
+			assertEquals(mode, Programs.compile(live, mode).length, Programs.compile(src, mode).length);
+		return out;
+	}
+
+	@Test
+	public void ifArms() {
+		assertEquals("1", same(program("\t\tif (debug == 1) print(0); else print(1);\n"), program("\t\tprint(1);\n"), "5"));
+		assertEquals("0", same(program("\t\tif (2 * 3 > 5) print(0); else { g = x; print(1); }\n"), program("\t\tprint(0);\n"), "5"));
+		assertEquals("", same(program("\t\tif (debug != 0) { g = x; print(g); }\n"), program(""), "5"));
+	}
+
+	@Test
+	public void loops() {
+		assertEquals("5", same(program("\t\twhile (debug > 0) { x = x - 1; print(x); }\n\t\tprint(x);\n"), program("\t\tprint(x);\n"), "5"));
+		String src = "program W {\n"
+			+ "\tint f(int n) { while (1 == 1) { if (n > 100) return n; n = n * 2; } }\n"
+			+ "\tvoid main() { print(f(3)); }\n"
+			+ "}\n";
+		assertEquals("192", Programs.check(src, ""));
+	}
+
+	@Test
+	public void afterReturn() {
+		String src = "program A {\n\tint f(int n) { if (n > 0) return 1; else return 2; print(n); n = n + 1; }\n\tvoid main() { print(f(1)); print(f(0)); }\n}\n";
+		String live = "program A {\n\tint f(int n) { if (n > 0) return 1; else return 2; }\n\tvoid main() { print(f(1)); print(f(0)); }\n}\n";
+		assertEquals("12", same(src, live, ""));
+	}
+
+	@Test
+	public void constantOnTheLeft() {
+		String body = "\t\tif (3 < x) print('a'); else print('b'); if (7 < x) print('c'); else print('d');\n"
+			+ "\t\tif (5 <= x) print('e'); if (5 - 1 >= x) print('f'); else print('g'); if (10 == x * 2) print('h');\n";
+		assertEquals("adegh", Programs.check(program(body), "5"));
+		assertEquals("bdf", Programs.check(program(body), "2"));
+	}
+
+	@Test
+	public void deadCodeIsChecked() {
+		StringBuilder sb = new StringBuilder();
+		String src = program("\t\tif (debug == 1) x = 'c';\n\t\twhile (1 > 2) undeclared = 1;\n");
+		Parser parser = new Parser(new Scanner(src.toCharArray(), src.length()), new Diagnostics(Diagnostics.text(sb)));
+		parser.parse();
+		assertEquals(sb.toString(), 2, parser.errors);
+	}
+}
@@ -0,0 +1,47 @@
+/* Diagnostics
+   ===========
+An object file that cannot be written is reported with its own code, io,
+and counts as an error even when the error limit has been reached.
+*/
+package MJ;
+
+import java.io.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DiagnosticsTest {
+
+	private static final OutputStream broken = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			throw new IOException("disk full");
+		}
+	};
+
+	private static Parser parse(Diagnostics diag) {
+		String src = "program P { void main() { print(1); } }";
+		Parser parser = new Parser(new Scanner(src.toCharArray(), src.length()), diag);
+		parser.parse();
+		assertEquals(0, parser.errors);
+		return parser;
+	}
+
+	@Test
+	public void writeErrorIsIo() {
+		StringBuilder json = new StringBuilder();
+		Parser parser = parse(new Diagnostics(Diagnostics.json(json, "P.mj")));
+		parser.code.write(broken);
+		assertEquals(1, parser.errors);
+		assertEquals(Diagnostics.io, parser.diag.code(0));
+		assertEquals("{\"file\":\"P.mj\",\"code\":\"io\",\"line\":0,\"col\":0,"
+			+ "\"message\":\"cannot write code file: disk full\"}\n", json.toString());
+	}
+
+	@Test
+	public void writeErrorAtErrorLimit() {
+		Parser parser = parse(new Diagnostics(Diagnostics.none, 1));
+		parser.code.write(broken);
+		assertEquals(1, parser.errors);
+		assertEquals(1, parser.diag.size());
+	}
+}
@@ -0,0 +1,47 @@
+/* Constant folding
+   ================
+Constant operands are folded at compile time, also when they appear on
+either side of a variable, and multiplications by powers of 2 become
+shifts. The results must be those of 32-bit arithmetic at run time.
+*/
+package MJ;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FoldTest {
+
+	private static String program(String body) {
+		return "program F final int k = 12; {\n\tvoid main() int x, y; {\n\t\tread(x);\n" + body + "\t}\n}\n";
+	}
+
+	@Test
+	public void mixedOperands() {
+		String src = program("\t\ty = 100 - x; print(y, 4); y = 100 / x; print(y, 4); y = 100 % x; print(y, 4);\n"
+			+ "\t\ty = 2 * 3 * x + k * 2 - (7 - 3) * x; print(y, 4);\n"
+			+ "\t\ty = x * 8 + x * 1 + 0 - x / 1; print(y, 4); y = -8 * x; print(y, 4);\n");
+		int x = 7;
+		String expected = String.format("%4d%4d%4d%4d%4d%4d", 100 - x, 100 / x, 100 % x, 2 * 3 * x + 12 * 2 - (7 - 3) * x,
+			x * 8 + x * 1 + 0 - x / 1, x * -8);
+		assertEquals(expected, Programs.check(src, "7"));
+	}
+
+	@Test
+	public void overflowWraps() {
+		String src = program("\t\tprint(2147483647 + 1); print(' '); print(65536 * 65536 + x); print(' '); print(-2147483647 - 1 - 1);\n");
+		assertEquals((2147483647 + 1) + " " + (65536 * 65536 + 3) + " " + (-2147483647 - 1 - 1), Programs.check(src, "3"));
+	}
+
+	@Test
+	public void constantDivisionByZeroFailsAtRunTime() {
+		assertEquals("!division by zero", Programs.check(program("\t\tprint(k / 0);\n"), "1"));
+		assertEquals("!division by zero", Programs.check(program("\t\tprint(k % (k - 12));\n"), "1"));
+	}
+
+	@Test
+	public void constantExpressionIsOneConstant() {
+		int folded = Programs.compile(program("\t\tprint(2 * (3 + k) - 4 / 2 % 3);\n"), "default").length;
+		int literal = Programs.compile(program("\t\tprint(28);\n"), "default").length;
+		assertEquals(literal, folded);
+	}
+}
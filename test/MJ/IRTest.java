@@ -0,0 +1,77 @@
+/* Intermediate representation
+   ===========================
+Building the IR and lowering it again without any pass must keep what a
+program does and must not make its code longer. The control flow graph
+must show the loops and the live locals of the source.
+*/
+package MJ;
+
+import java.util.BitSet;
+import MJ.CodeGen.IR;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IRTest {
+	private static final String loops = "program L {\n"
+		+ "\tint f(int a, int b) int x, i; {\n"
+		+ "\t\tx = a;\n"
+		+ "\t\twhile (b > 0) {\n"
+		+ "\t\t\ti = 0;\n"
+		+ "\t\t\twhile (i < b) { x = x + i; i = i + 1; }\n"
+		+ "\t\t\tif (x > 1000) return x;\n"
+		+ "\t\t\tb = b - 1;\n"
+		+ "\t\t}\n"
+		+ "\t\treturn x;\n"
+		+ "\t}\n"
+		+ "\tvoid main() int n; { read(n); print(f(3, n)); print(' '); print(f(1, 50)); }\n"
+		+ "}\n";
+
+	@Test
+	public void roundTrip() {
+		String[] src = {loops,
+			"program R { int fact(int n) { if (n <= 1) return 1; return n * fact(n - 1); } void main() { print(fact(10)); } }",
+			"program C { void main() char[] s; int i; { s = new char[4]; i = 0; while (i < 4) { s[i] = chr(ord('w') + i); i = i + 1; } "
+				+ "i = 0; while (i < 4) { if (s[i] == 'y') print('Y'); else print(s[i]); i = i + 1; } } }"};
+		String[] input = {"10", "", ""};
+		for (int k = 0; k < src.length; k++) {
+			String expected = Programs.check(src[k], input[k]);
+			byte[] obj = Programs.compile(src[k], ir -> {});
+			assertEquals(expected, Programs.run(obj, input[k]));
+			assertTrue(obj.length <= Programs.compile(src[k], "plain").length);
+		}
+		assertEquals("168 1226", Programs.check(loops, "10"));
+	}
+
+	// Both arms of the if at the end of the body jump back to the header: still one loop
+	@Test
+	public void loopWithTwoBackEdges() {
+		String src = "program T { void main() int i, s; { i = 0; s = 0; while (i < 9) { i = i + 1; if (i % 3 == 0) s = s + i; } print(s); } }";
+		Programs.compile(src, ir -> {
+			assertEquals(1, ir.loops().length);
+			int[] depth = ir.loopDepth();
+			for (int b = 0; b < ir.nBlocks; b++) assertTrue(depth[b] <= 1);
+		});
+		assertEquals("18", Programs.check(src, ""));
+	}
+
+	@Test
+	public void loopsAndLiveness() {
+		Programs.compile(loops, ir -> {
+			int[][] l = ir.loops();
+			assertEquals(2, l.length);	// both in f (method 0)
+			int[] depth = ir.loopDepth();
+			int max = 0;
+			for (int b = 0; b < ir.nBlocks; b++) if (ir.meth[b] == 0) max = Math.max(max, depth[b]);
+			assertEquals(2, max);
+
+			BitSet[][] live = ir.liveness(0);
+			BitSet atEntry = live[0][ir.entry[0]];
+			assertTrue(atEntry.get(0) && atEntry.get(1));	// the parameters a and b
+			assertFalse(atEntry.get(2) || atEntry.get(3));	// x and i are written first
+			for (int[] loop: l) {
+				BitSet atHeader = live[0][loop[0]];
+				assertTrue(atHeader.get(1) && atHeader.get(2));	// b and x are carried around both loops
+			}
+		});
+	}
+}
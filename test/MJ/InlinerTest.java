@@ -0,0 +1,92 @@
+/* Inlining
+   ========
+Small leaf methods are expanded at their call sites: their parameters and
+locals become locals of the caller, locals read before they are written
+are cleared at every expansion, and every return, also an early one,
+continues behind the call. Recursive methods are never expanded. The
+programs are run with the inliner as the only pass and compared with the
+unoptimized program.
+*/
+package MJ;
+
+import MJ.CodeGen.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class InlinerTest {
+
+	// Inliner run on src with the inliner as the only pass; its output must be the plain one
+	private static Inliner inline(String src, String input, int maxSize) {
+		Inliner inliner = new Inliner();
+		inliner.maxSize = maxSize;
+		byte[] obj = Programs.compile(src, ir -> inliner.optimize(ir));
+		assertEquals(Programs.run(Programs.compile(src, "plain"), input), Programs.run(obj, input));
+		return inliner;
+	}
+
+	@Test
+	public void leafMethods() {
+		String src = "program I class P { int x; } int g; {\n"
+			+ "\tint getX(P p) { return p.x; }\n"
+			+ "\tint sub(int a, int b) { return a - b; }\n"
+			+ "\tvoid bump() { g = g + 1; }\n"
+			+ "\tvoid main() P p; int i, t; {\n"
+			+ "\t\tp = new P; p.x = 7; i = 0; t = 0;\n"
+			+ "\t\twhile (i < 10) { t = t + sub(getX(p), i) * 2; bump(); i = i + 1; }\n"
+			+ "\t\tprint(t); print(' '); print(g); print(' '); print(1 + sub(10, 3) * 3);\n"
+			+ "\t}\n"
+			+ "}\n";
+		Inliner inliner = inline(src, "", Inliner.defaultSize);
+		assertEquals(4, inliner.inlined);
+		assertEquals(3, inliner.dropped);
+		assertEquals("50 10 22", Programs.check(src, ""));
+		assertEquals(0, inline(src, "", 0).inlined);
+	}
+
+	@Test
+	public void earlyReturn() {
+		String src = "program E {\n"
+			+ "\tint max(int a, int b) { if (a > b) return a; return b; }\n"
+			+ "\tint sign(int a) { if (a > 0) return 1; else if (a < 0) return -1; return 0; }\n"
+			+ "\tvoid main() int i; { i = -2; while (i <= 2) { print(max(i, 0)); print(sign(i), 3); i = i + 1; } }\n"
+			+ "}\n";
+		assertEquals(2, inline(src, "", Inliner.defaultSize).inlined);
+		assertEquals("0 -10 -10  01  12  1", Programs.check(src, ""));
+	}
+
+	@Test
+	public void localsAreClearedAtEveryCall() {
+		String src = "program C {\n"
+			+ "\tint acc(int n) int s; { while (n > 0) { s = s + n; n = n - 1; } return s; }\n"
+			+ "\tvoid main() int i; { i = 1; while (i <= 4) { print(acc(i), 3); i = i + 1; } print(acc(3), 3); }\n"
+			+ "}\n";
+		assertEquals(2, inline(src, "", Inliner.defaultSize).inlined);
+		assertEquals("  1  3  6 10  6", Programs.check(src, ""));
+	}
+
+	@Test
+	public void recursionIsNotInlined() {
+		String src = "program R {\n"
+			+ "\tint fact(int n) { if (n <= 1) return 1; return n * fact(n - 1); }\n"
+			+ "\tint twice(int n) { return fact(n) * 2; }\n"
+			+ "\tvoid main() { print(fact(6)); print(twice(3), 3); }\n"
+			+ "}\n";
+		Inliner inliner = inline(src, "", 100);
+		assertEquals(0, inliner.inlined);
+		assertEquals(0, inliner.dropped);
+		assertEquals("720 12", Programs.check(src, ""));
+	}
+
+	@Test
+	public void callerBecomesLeaf() {
+		String src = "program N {\n"
+			+ "\tint sq(int a) { return a * a; }\n"
+			+ "\tint sum2(int a, int b) { return sq(a) + sq(b); }\n"
+			+ "\tvoid main() { print(sum2(3, 4)); }\n"
+			+ "}\n";
+		Inliner inliner = inline(src, "", Inliner.defaultSize);
+		assertEquals(3, inliner.inlined);	// sq twice into sum2, then sum2 into main
+		assertEquals(2, inliner.dropped);
+		assertEquals("25", Programs.check(src, ""));
+	}
+}
@@ -0,0 +1,75 @@
+/* Translation to JVM bytecode
+   ===========================
+A translated program must print what it prints in the VM and stop with
+the same runtime errors. Object code that the compiler never produces,
+e.g. a field offset or static address out of range, is made by hand.
+*/
+package MJ;
+
+import java.io.*;
+import MJ.CodeGen.Code;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class JitTest {
+
+	// Object file with dataSize static words and code, where main is at 0
+	private static byte[] obj(int dataSize, int... code) throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(b);
+		out.writeByte('M'); out.writeByte('J');
+		out.writeInt(code.length); out.writeInt(dataSize); out.writeInt(0);
+		for (int c: code) out.writeByte(c);
+		return b.toByteArray();
+	}
+
+	private static void sameError(byte[] obj, String error) {
+		String vm = Programs.run(obj, ""), jit = Programs.runJit(obj, "");
+		assertTrue(vm, vm.startsWith(error));
+		assertTrue(jit, jit.startsWith(error));
+	}
+
+	@Test
+	public void sort() {
+		String src = "program Sort int[] a; int seed; {\n"
+			+ "\tint random() { seed = (seed * 1103 + 12345) % 65536; return seed; }\n"
+			+ "\tvoid sort(int n) int i, j, h; {\n"
+			+ "\t\ti = 0;\n"
+			+ "\t\twhile (i < n) {\n"
+			+ "\t\t\tj = n - 1;\n"
+			+ "\t\t\twhile (j > i) { if (a[j - 1] > a[j]) { h = a[j]; a[j] = a[j - 1]; a[j - 1] = h; } j = j - 1; }\n"
+			+ "\t\t\ti = i + 1;\n"
+			+ "\t\t}\n"
+			+ "\t}\n"
+			+ "\tvoid main() int n, i; { read(n); a = new int[n]; seed = 1; i = 0; while (i < n) { a[i] = random(); i = i + 1; } sort(n); print(a[0]); print(' '); print(a[n - 1]); }\n"
+			+ "}\n";
+		assertEquals("440 65416", Programs.check(src, "300"));
+	}
+
+	@Test
+	public void trap() {
+		String src = "program T { int f(int x) { if (x > 0) return x; } void main() { print(f(1)); print(f(0)); } }";
+		for (String mode: Programs.modes) {	// the address differs between the modes
+			byte[] obj = Programs.compile(src, mode);
+			String out = Programs.run(obj, "");
+			assertTrue(mode + ": " + out, out.startsWith("1!trap 1 at "));
+			assertEquals(mode, out, Programs.runJit(obj, ""));
+		}
+	}
+
+	@Test
+	public void fieldOffsetOutOfRange() throws IOException {
+		sameError(obj(0, Code.enter, 0, 0, Code.new_, 0, 1, Code.getfield, 0xff, 0xff, Code.pop,
+			Code.exit, Code.return_), "!stack overflow or illegal address");
+		sameError(obj(0, Code.enter, 0, 0, Code.new_, 0, 1, Code.const0, Code.putfield, 0xff, 0xff,
+			Code.exit, Code.return_), "!stack overflow or illegal address");
+	}
+
+	@Test
+	public void staticAddressOutOfRange() throws IOException {
+		sameError(obj(2, Code.enter, 0, 0, Code.getstatic, 0, 5, Code.pop, Code.exit, Code.return_),
+			"!stack overflow or illegal address");
+		sameError(obj(2, Code.enter, 0, 0, Code.const2, Code.putstatic, 0, 2, Code.exit, Code.return_),
+			"!stack overflow or illegal address");
+	}
+}
@@ -0,0 +1,106 @@
+/* Local allocation
+   ================
+The allocator gives the hottest locals the short slots 0..3 and lets
+locals whose live ranges do not overlap share a slot. Parameters keep
+their slots; locals carried around a loop, and locals read before they
+are written (they rely on enter clearing them), must keep their values.
+Each program is run with the allocator as the only pass and compared with
+the unoptimized program.
+*/
+package MJ;
+
+import MJ.CodeGen.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LocalAllocatorTest {
+
+	// Output of src with the allocator as the only pass, which must be the plain one
+	private static String allocated(String src, String input, LocalAllocator a) {
+		String expected = Programs.run(Programs.compile(src, "plain"), input);
+		assertEquals(expected, Programs.run(Programs.compile(src, ir -> a.allocate(ir)), input));
+		return expected;
+	}
+
+	// Frame size (enter) and the largest slot loaded or stored in a loop of method m
+	private static int[] frame(IR ir, int m) {
+		int[] depth = ir.loopDepth();
+		int size = ir.arg[ir.first[ir.entry[m]]] & 0xff, hot = -1;
+		for (int b = ir.entry[m]; b != IR.none; b = ir.nextBlock[b])
+			for (int i = ir.first[b]; i != IR.none; i = ir.next[i])
+				if ((ir.op[i] == Code.load || ir.op[i] == Code.store) && depth[b] > 0) hot = Math.max(hot, ir.arg[i]);
+		return new int[] {size, hot};
+	}
+
+	@Test
+	public void hotLocalsGetShortSlots() {
+		String src = "program H {\n"
+			+ "\tvoid main() int a, b, c, d, e, s, i; {\n"
+			+ "\t\ta = 1; b = 2; c = 3; d = 4; e = 5; print(a + b + c + d + e);\n"
+			+ "\t\ts = 0; i = 0; while (i < 100) { s = s + i; i = i + 1; } print(s, 5);\n"
+			+ "\t}\n"
+			+ "}\n";
+		LocalAllocator a = new LocalAllocator();
+		assertEquals("15 4950", allocated(src, "", a));
+		assertTrue(a.moved > 0);
+		Programs.compile(src, ir -> {
+			new LocalAllocator().allocate(ir);
+			assertTrue(frame(ir, 0)[1] <= 3);	// s and i
+		});
+	}
+
+	@Test
+	public void disjointLocalsShareSlots() {
+		String src = "program D {\n"
+			+ "\tvoid main() int x, y, z; {\n"
+			+ "\t\tx = 6; print(x * 7);\n"
+			+ "\t\ty = 5; print(y + 1, 2);\n"
+			+ "\t\tz = 4; print(z, 2);\n"
+			+ "\t}\n"
+			+ "}\n";
+		LocalAllocator a = new LocalAllocator();
+		assertEquals("42 6 4", allocated(src, "", a));
+		assertEquals(2, a.savedSlots);
+	}
+
+	@Test
+	public void loopCarriedLocals() {
+		// x is written at the end of the body and read at its start, t only within the body
+		String src = "program C {\n"
+			+ "\tvoid main() int n, x, t, i; {\n"
+			+ "\t\tread(n); x = 1; i = 0;\n"
+			+ "\t\twhile (i < n) { t = x * 3; print(t, 4); x = t % 17 + i; i = i + 1; }\n"
+			+ "\t\tprint(x, 4);\n"
+			+ "\t}\n"
+			+ "}\n";
+		assertEquals("   3   9  30  45  42  36  21  30  60  51   9", allocated(src, "10", new LocalAllocator()));
+	}
+
+	@Test
+	public void parametersLiveAtEntry() {
+		// the parameters are only read late, the local s is read before it is written
+		String src = "program P {\n"
+			+ "\tint f(int a, int b) int s, u; {\n"
+			+ "\t\tu = 0; while (u < 3) { s = s + u; u = u + 1; }\n"
+			+ "\t\treturn s * 1000 + a * 10 + b;\n"
+			+ "\t}\n"
+			+ "\tint g(int p) int s; { while (p > 0) { s = s + p; p = p - 1; } return s; }\n"
+			+ "\tvoid main() { print(f(7, 8)); print(' '); print(f(1, 2)); print(' '); print(g(3)); print(g(4), 3); }\n"
+			+ "}\n";
+		assertEquals("3078 3012 6 10", allocated(src, "", new LocalAllocator()));
+		Programs.compile(src, ir -> {
+			new LocalAllocator().allocate(ir);
+			assertEquals(2 << 8 | 4, ir.arg[ir.first[ir.entry[0]]]);	// a, b and s need their own slots
+		});
+	}
+
+	@Test
+	public void recursion() {
+		String src = "program R {\n"
+			+ "\tint fib(int n) int a, b; { if (n < 2) return n; a = fib(n - 1); b = fib(n - 2); return a + b; }\n"
+			+ "\tvoid main() int i; { i = 0; while (i < 12) { print(fib(i), 4); i = i + 1; } }\n"
+			+ "}\n";
+		assertEquals("   0   1   1   2   3   5   8  13  21  34  55  89", allocated(src, "", new LocalAllocator()));
+		assertEquals(Programs.check(src, ""), allocated(src, "", new LocalAllocator()));
+	}
+}
@@ -0,0 +1,70 @@
+/* Loop invariant hoisting
+   =======================
+Chains like len(a) and o.f in a loop header are evaluated once before the
+loop, unless the loop changes what they read or they come after an
+instruction that may trap. The programs are run with the pass as the only
+one and compared with the unoptimized program; the runtime errors must
+stay the same, too.
+*/
+package MJ;
+
+import MJ.CodeGen.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LoopInvariantsTest {
+
+	// Number of chains hoisted in src; its output with the pass alone must be the plain one
+	private static int hoisted(String src, String input) {
+		LoopInvariants l = new LoopInvariants();
+		byte[] obj = Programs.compile(src, ir -> l.optimize(ir));
+		assertEquals(Programs.run(Programs.compile(src, "plain"), input), Programs.run(obj, input));
+		Programs.check(src, input);
+		return l.hoisted;
+	}
+
+	private static String program(String body) {
+		return "program L class P { int n; P next; } int[] a; P p; {\n"
+			+ "\tvoid touch() { }\n"
+			+ "\tvoid main() int i, s, d; {\n"
+			+ "\t\tread(d); a = new int[7]; p = new P; p.n = 5; p.next = new P; p.next.n = 3; i = 0; s = 0;\n"
+			+ body
+			+ "\t\tprint(s);\n"
+			+ "\t}\n"
+			+ "}\n";
+	}
+
+	@Test
+	public void invariantChains() {
+		assertEquals(1, hoisted(program("\t\twhile (i < len(a)) { s = s + i; i = i + 1; }\n"), "1"));
+		assertEquals(1, hoisted(program("\t\twhile (i < p.next.n) { s = s + i; i = i + 1; }\n"), "1"));
+	}
+
+	@Test
+	public void changedInTheLoop() {
+		assertEquals("store", 0, hoisted(program("\t\twhile (i < len(a)) { s = s + i; i = i + 1; if (i == 3) a = new int[5]; }\n"), "1"));
+		assertEquals("field", 0, hoisted(program("\t\twhile (i < p.n) { s = s + i; i = i + 1; p.n = 4; }\n"), "1"));
+		assertEquals("call", 0, hoisted(program("\t\twhile (i < p.n) { s = s + i; i = i + 1; touch(); }\n"), "1"));
+	}
+
+	@Test
+	public void trapsStayInPlace() {
+		String nullChain = program("\t\tp = null; while (i < p.n) { s = s + i; i = i + 1; }\n");
+		hoisted(nullChain, "1");
+		assertEquals("!null reference used", Programs.check(nullChain, "1"));
+
+		String afterDivision = program("\t\ta = null; while (i < 10 / d + len(a)) { s = s + i; i = i + 1; }\n");
+		assertEquals(0, hoisted(afterDivision, "0"));
+		assertEquals("!division by zero", Programs.check(afterDivision, "0"));
+	}
+
+	@Test
+	public void recursion() {
+		String src = "program R int[] a; {\n"
+			+ "\tint sum(int k) int i, s; { i = 0; s = 0; while (i < len(a)) { s = s + a[i] * k; i = i + 1; } if (k > 1) return s + sum(k - 1); return s; }\n"
+			+ "\tvoid main() int i; { a = new int[4]; i = 0; while (i < 4) { a[i] = i + 1; i = i + 1; } print(sum(3)); }\n"
+			+ "}\n";
+		assertEquals(1, hoisted(src, ""));
+		assertEquals("60", Programs.check(src, ""));
+	}
+}
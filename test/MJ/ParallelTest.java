@@ -0,0 +1,79 @@
+/* Parallel method bodies
+   ======================
+With many methods the fragments run concurrently and must link to the same
+program as the sequential compilation. Errors in the bodies and names after
+the end of the program must be reported as by the sequential compilation,
+also when a pipelined scanner is still scanning ahead while the name table
+is frozen.
+*/
+package MJ;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ParallelTest {
+
+	private static String messages(String src, boolean parallel, boolean pipeline) {
+		StringBuilder sb = new StringBuilder();
+		Scanner s = pipeline ? new PipelinedScanner(src.toCharArray(), src.length(), 8) : new Scanner(src.toCharArray(), src.length());
+		Parser parser = new Parser(s, new Diagnostics(Diagnostics.text(sb)));
+		parser.parallel = parallel;
+		parser.parse();
+		return parser.errors + "\n" + sb;
+	}
+
+	// Errors must be the same in all modes
+	private static String checkErrors(String src) {
+		String expected = messages(src, false, false);
+		assertEquals(expected, messages(src, false, true));
+		assertEquals(expected, messages(src, true, false));
+		for (int i = 0; i < 5; i++) assertEquals(expected, messages(src, true, true));
+		return expected;
+	}
+
+	@Test
+	public void manyMethods() {
+		StringBuilder sb = new StringBuilder("program M int g; {\n");
+		for (int i = 0; i < 40; i++)
+			sb.append("\tint m").append(i).append("(int a) int b").append(i).append("; { b").append(i).append(" = a + ").append(i)
+				.append("; g = g + 1; return ").append(i == 0 ? "b0" : "m" + (i - 1) + "(b" + i + ")").append("; }\n");
+		sb.append("\tvoid main() { print(m39(1)); print(g, 3); }\n}\n");
+		assertEquals("781 40", Programs.check(sb.toString(), ""));
+	}
+
+	@Test
+	public void errorsInBodies() {
+		String msg = checkErrors("program E {\n\tvoid a() { x = 1; }\n\tint b() { return 'c'; }\n\tvoid main() { a(); b(1); }\n}\n");
+		assertTrue(msg, msg.startsWith("3\n"));
+	}
+
+	// The pipelined scanner must not intern while it is held for a frozen name table
+	@Test
+	public void heldScanner() throws InterruptedException {
+		StringBuilder sb = new StringBuilder("program P {");
+		for (int i = 0; i < 5000; i++) sb.append(" n").append(i);
+		String src = sb.toString();
+		PipelinedScanner s = new PipelinedScanner(src.toCharArray(), src.length());
+		Token t = new Token();
+		for (int i = 0; i < 3; i++) s.next(t);
+		s.hold();
+		int n = s.names.size();
+		s.names.freeze(true);
+		Thread.sleep(20);	// time to run ahead
+		assertEquals(n, s.names.size());
+		s.names.freeze(false);
+		s.release();
+		int tokens = 3;
+		for (s.next(t); t.len > 0; s.next(t)) tokens++;
+		assertEquals(5003, tokens);
+		assertEquals(5001, s.names.size());	// n0..n4999 and P
+	}
+
+	@Test
+	public void namesAfterProgram() {
+		StringBuilder sb = new StringBuilder("program P {\n\tvoid f() int x; { x = 1; }\n\tvoid main() { f(); }\n}\n");
+		for (int i = 0; i < 5000; i++) sb.append("trailing").append(i).append(' ');	// new names while the table is frozen
+		String msg = checkErrors(sb.toString());
+		assertTrue(msg, msg.startsWith("1\n"));
+	}
+}
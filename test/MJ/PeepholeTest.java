@@ -0,0 +1,29 @@
+/* Peephole optimizer
+   ==================
+Nested conditions and loops produce jump chains and jumps to the next
+instruction. The optimized program must print the same as the plain one
+and be shorter.
+*/
+package MJ;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PeepholeTest {
+
+	@Test
+	public void jumpChains() {
+		String src = "program J {\n"
+			+ "\tvoid main() int i, j, n; {\n"
+			+ "\t\tread(n); i = 0;\n"
+			+ "\t\twhile (i < n) {\n"
+			+ "\t\t\tif (i % 2 == 0) { if (i % 3 == 0) print(i); else print(-i); } else j = i;\n"
+			+ "\t\t\ti = i + 1;\n"
+			+ "\t\t}\n"
+			+ "\t\ti = i; j = j + 0; print(j, 3); print(-5);\n"
+			+ "\t}\n"
+			+ "}\n";
+		assertEquals("0-2-46-8  9-5", Programs.check(src, "10"));
+		assertTrue(Programs.compile(src, "default").length < Programs.compile(src, "plain").length);
+	}
+}
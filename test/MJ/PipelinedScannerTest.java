@@ -0,0 +1,77 @@
+/* Pipelined scanner
+   =================
+The pipelined scanner must deliver the same tokens and lexical errors as
+the plain one, whatever the size of its ring.
+*/
+package MJ;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PipelinedScannerTest {
+	private static final int eof = new Scanner(new char[0], 0).next().kind;
+
+	// Many lines with names, numbers, characters, comments and lexical errors
+	private static String source() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 3000; i++) {
+			sb.append("x").append(i % 97).append(" = ").append(i).append(" * 'c' + '\\n';");
+			if (i % 500 == 7) sb.append(" # 99999999999 'ab'");	// lexical errors
+			if (i % 3 == 0) sb.append(" // comment\n"); else sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static String tokens(Scanner s) {
+		StringBuilder out = new StringBuilder();
+		StringBuilder errors = new StringBuilder();
+		s.diag = new Diagnostics(Diagnostics.text(errors));
+		Token t = new Token();
+		do {
+			s.next(t);
+			out.append(t.kind).append(' ').append(t.line).append(':').append(t.col).append(' ')
+				.append(t.val).append(' ').append(t.id).append(' ').append(t.pos).append('+').append(t.len).append('\n');
+		} while (t.kind != eof);
+		s.close();
+		return out.append(errors).toString();
+	}
+
+	@Test
+	public void sameTokens() {
+		String src = source();
+		String expected = tokens(new Scanner(src.toCharArray(), src.length()));
+		assertTrue(expected.contains("-- line 8 col"));
+		for (int capacity: new int[] {2, 16, PipelinedScanner.defaultCapacity})
+			assertEquals("capacity " + capacity, expected, tokens(new PipelinedScanner(src.toCharArray(), src.length(), capacity)));
+	}
+
+	@Test
+	public void closeBeforeEnd() {
+		String src = source();
+		Scanner plain = new Scanner(src.toCharArray(), src.length());
+		PipelinedScanner s = new PipelinedScanner(src.toCharArray(), src.length(), 16);
+		plain.diag = s.diag = new Diagnostics(Diagnostics.none);
+		Token t = new Token(), u = new Token();
+		for (int i = 0; i < 100; i++) {
+			s.next(t); plain.next(u);
+			assertEquals(u.line + ":" + u.col, t.line + ":" + t.col);
+		}
+		s.close();	// while the producer waits for room in the ring
+		s.close();
+	}
+
+	@Test
+	public void syntaxErrorsAsPlain() {
+		String src = "program P int[] a; {\n\tvoid main() int x; {\n\t\tx = 3 +;\n\t\ta[1 = 'xy';\n\t}\n}\n";
+		assertEquals(messages(new Scanner(src.toCharArray(), src.length())),
+			messages(new PipelinedScanner(src.toCharArray(), src.length(), 4)));
+	}
+
+	private static String messages(Scanner s) {
+		StringBuilder sb = new StringBuilder();
+		Parser parser = new Parser(s, new Diagnostics(Diagnostics.text(sb)));
+		parser.parse();
+		assertTrue(parser.errors > 0);
+		return sb.toString();
+	}
+}
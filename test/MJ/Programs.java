@@ -0,0 +1,95 @@
+/* Compile and run MicroJava programs in the tests
+   ===============================================
+compile translates a source text in one of the compilation modes and
+returns the object file; run executes an object file in the VM with the
+given input and returns what the program prints, runJit does the same with
+the program translated to JVM bytecode. If the program stops with a runtime
+error, the output ends with "!" and the message.
+
+check does this in every mode and requires all of them, in the VM and
+translated, to print the same.
+*/
+package MJ;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import MJ.CodeGen.*;
+import static org.junit.Assert.*;
+
+class Programs {
+	static final String[] modes = {"default", "plain", "pipeline", "parallel", "parallel pipeline", "ir", "ir parallel"};	// "plain": without optimizer
+
+	// Object file of src compiled in mode; fails the test on compilation errors
+	static byte[] compile(String src, String mode) {
+		return write(parse(src, mode));
+	}
+
+	// Object file of src compiled without optimizer, turned into an IR, changed by pass and lowered
+	static byte[] compile(String src, Consumer<IR> pass) {
+		Parser parser = parse(src, "plain");
+		IR ir = new IR(parser.code);
+		pass.accept(ir);
+		assertTrue(ir.lower(parser.code));
+		return write(parser);
+	}
+
+	private static Parser parse(String src, String mode) {
+		StringBuilder messages = new StringBuilder();
+		Scanner scanner = mode.contains("pipeline")
+			? new PipelinedScanner(src.toCharArray(), src.length(), 16)	// small ring: the threads often wait
+			: new Scanner(src.toCharArray(), src.length());
+		Parser parser = new Parser(scanner, new Diagnostics(Diagnostics.text(messages)));
+		parser.optimize = !mode.equals("plain");
+		parser.parallel = mode.contains("parallel");
+		parser.ir = mode.contains("ir");
+		parser.parse();
+		assertEquals(mode + ": " + messages, 0, parser.errors);
+		return parser;
+	}
+
+	private static byte[] write(Parser parser) {
+		ByteArrayOutputStream obj = new ByteArrayOutputStream();
+		parser.code.write(obj);
+		return obj.toByteArray();
+	}
+
+	// Output of obj run in the VM with input
+	static String run(byte[] obj, String input) {
+		StringWriter out = new StringWriter();
+		try {
+			new Run(obj).run(new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII)), out);
+		} catch (Run.VMError e) {
+			out.write("!" + e.getMessage());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toString();
+	}
+
+	// Output of obj translated to JVM bytecode and run with input
+	static String runJit(byte[] obj, String input) {
+		StringWriter out = new StringWriter();
+		try {
+			new JvmTranslator(obj).load().run(new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII)), out);
+		} catch (Run.VMError e) {
+			out.write("!" + e.getMessage());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toString();
+	}
+
+	// Output of src with input, which must be the same in all modes
+	static String check(String src, String input) {
+		String expected = null;
+		for (String mode : modes) {
+			byte[] obj = compile(src, mode);
+			String s = run(obj, input);
+			assertEquals(mode + " translated", s, runJit(obj, input));
+			if (expected == null) expected = s;
+			else assertEquals(mode, expected, s);
+		}
+		return expected;
+	}
+}
@@ -0,0 +1,75 @@
+/* MicroJava VM
+   ============
+Small programs that exercise calls, arrays, objects, characters, input and
+the runtime errors of the VM. Programs.check runs them in every compilation
+mode.
+*/
+package MJ;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RunTest {
+
+	@Test
+	public void recursion() {
+		String src = "program Fib int calls; {\n"
+			+ "\tint fib(int n) { calls = calls + 1; if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n"
+			+ "\tvoid main() int n; { read(n); print(fib(n)); print(calls, 6); }\n"
+			+ "}\n";
+		assertEquals("6765 21891", Programs.check(src, "20"));
+		assertEquals("1     1", Programs.check(src, "1"));
+	}
+
+	@Test
+	public void arraysAndObjects() {
+		String src = "program A class P { int x; int[] a; } {\n"
+			+ "\tvoid main() P p; int i, s; int[] b; {\n"
+			+ "\t\tp = new P; p.a = new int[5]; b = p.a; i = 0;\n"
+			+ "\t\twhile (i < len(b)) { b[i] = i * i; i = i + 1; }\n"
+			+ "\t\ts = 0; i = 0; while (i < 5) { s = s + p.a[i]; i = i + 1; }\n"
+			+ "\t\tp.x = s; print(p.x); print(len(p.a), 2);\n"
+			+ "\t}\n"
+			+ "}\n";
+		assertEquals("30 5", Programs.check(src, ""));
+	}
+
+	@Test
+	public void characters() {
+		String src = "program C {\n"
+			+ "\tvoid main() char[] s; char c; int i; {\n"
+			+ "\t\ts = new char[3]; i = 0;\n"
+			+ "\t\twhile (i < 3) { s[i] = chr(ord('a') + i); i = i + 1; }\n"
+			+ "\t\ti = 2; while (i >= 0) { c = s[i]; print(c); i = i - 1; }\n"
+			+ "\t\tprint('\\n'); print(ord('\\t'));\n"
+			+ "\t}\n"
+			+ "}\n";
+		assertEquals("cba\n9", Programs.check(src, ""));
+	}
+
+	@Test
+	public void input() {
+		String src = "program R {\n"
+			+ "\tvoid main() int n, s, x; {\n"
+			+ "\t\tread(n); s = 0;\n"
+			+ "\t\twhile (n > 0) { read(x); s = s + x % 7 - x / 3; n = n - 1; }\n"
+			+ "\t\tprint(s);\n"
+			+ "\t}\n"
+			+ "}\n";
+		assertEquals("-3", Programs.check(src, "3 10 20 -4"));
+	}
+
+	@Test
+	public void runtimeErrors() {
+		assertEquals("!division by zero", Programs.check(
+			"program E { void main() int z; { z = 0; print(1 / z); } }", ""));
+		assertEquals("!null reference used", Programs.check(
+			"program E class P { int x; } { void main() P p; { print(p.x); } }", ""));
+		assertEquals("1!index out of bounds", Programs.check(
+			"program E { void main() int[] a; { a = new int[2]; print(1); a[2] = 0; } }", ""));
+		assertEquals("!negative array size", Programs.check(
+			"program E { void main() int[] a; int n; { n = -1; a = new int[n]; } }", ""));
+		assertEquals("!stack overflow", Programs.check(
+			"program E { int f(int n) { return f(n + 1) + 1; } void main() { print(f(0)); } }", ""));
+	}
+}
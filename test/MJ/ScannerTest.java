@@ -0,0 +1,49 @@
+/* Scanner input
+   =============
+The whole source is read before scanning starts. A Reader that fails must
+fail the construction of the scanner; the part read so far must not be
+scanned as if it were the complete program.
+*/
+package MJ;
+
+import java.io.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ScannerTest {
+
+	// Delivers text and then fails instead of returning eof
+	private static class FailingReader extends StringReader {
+		private boolean failed;
+		FailingReader(String s) { super(s); }
+		@Override
+		public int read(char[] b, int off, int n) throws IOException {
+			int k = super.read(b, off, n);
+			if (k >= 0) return k;
+			failed = true;
+			throw new IOException("device error");
+		}
+	}
+
+	@Test
+	public void readErrorIsReported() {
+		FailingReader r = new FailingReader("program P { void main() { } }");
+		try {
+			new Scanner(r);
+			fail("IOException expected");
+		} catch (IOException e) {
+			assertTrue(r.failed);
+			assertEquals("device error", e.getMessage());
+		}
+	}
+
+	@Test
+	public void readerLongerThanBlock() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++) sb.append("x").append(i).append(' ');
+		Scanner s = new Scanner(new StringReader(sb.toString()));
+		int n = 0;
+		while (s.next().len > 0) n++;	// names have a length, eof has none
+		assertEquals(5000, n);
+	}
+}
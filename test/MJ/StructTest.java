@@ -0,0 +1,49 @@
+/* Array types
+   ===========
+arrayOf returns one Struct per element type, also across threads. The
+array types of the predeclared types exist from the start, so arrayOf does
+not wait for a lock on them that other compilations might hold.
+*/
+package MJ;
+
+import java.util.*;
+import java.util.concurrent.*;
+import MJ.SymTab.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StructTest {
+
+	@Test
+	public void predeclaredArraysDoNotLock() throws Exception {
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			for (Struct t: new Struct[] {Tab.intType, Tab.charType, Tab.noType}) {
+				synchronized (t) {	// as if another compilation held it
+					Future<Struct> a = pool.submit(() -> Struct.arrayOf(t));
+					Struct arr = a.get(10, TimeUnit.SECONDS);
+					assertTrue(arr.kind == Struct.Arr && arr.elemType == t);
+					assertSame(arr, Struct.arrayOf(t));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void oneArrayTypePerElementType() throws Exception {
+		Struct c = new Struct(Struct.Class);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Struct>> all = new ArrayList<Future<Struct>>();
+			for (int i = 0; i < 100; i++) all.add(pool.submit(() -> Struct.arrayOf(c)));
+			Struct first = Struct.arrayOf(c);
+			for (Future<Struct> f: all) assertSame(first, f.get());
+			assertTrue(first.elemType == c);
+			assertNotSame(first, Struct.arrayOf(new Struct(Struct.Class)));
+		} finally {
+			pool.shutdown();
+		}
+	}
+}